@@ -0,0 +1,101 @@
+package com.autodesk;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.labels.LabelAtom;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.JNLPLauncher;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.model.Jenkins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of {@link QueueTimeout#checkIfAgentExists} for every item of the queue, on a Jenkins instance with a given
+ * number of offline agents. {@link #memoized} answers from the {@link AgentLabelIndex}; {@link #afterInvalidation}
+ * drops the index first, as a node or cloud change does, so every distinct label is matched against the real nodes
+ * with {@code Label.matches} again.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AgentMatchBenchmark {
+
+    private static final int LABELS_PER_AGENT = 8;
+    private static final int DISTINCT_LABELS = 200;
+    // share of the queue asking for a label no agent has
+    private static final double MISSING_LABEL_FRACTION = 0.1;
+
+    @State(Scope.Benchmark)
+    public static class JenkinsState extends JmhBenchmarkState {
+
+        @Param({"10", "100", "1000", "5000"})
+        public int agents;
+
+        Queue.Item[] items;
+
+        @Override
+        public void setup() throws Exception {
+            Jenkins jenkins = getJenkins();
+            Random random = new Random(42);
+            List<Node> nodes = new ArrayList<>();
+            for (int i = 0; i < agents; i++) {
+                Set<String> labels = new HashSet<>();
+                while (labels.size() < LABELS_PER_AGENT) {
+                    labels.add("label-" + random.nextInt(DISTINCT_LABELS));
+                }
+                DumbSlave agent = new DumbSlave("agent-" + i, "/tmp/agent-" + i, new JNLPLauncher(true));
+                agent.setLabelString(String.join(" ", labels));
+                nodes.add(agent);
+            }
+            jenkins.setNodes(nodes);
+            // one queued item per distinct label, the quiet period keeps them in the queue
+            for (int i = 0; i < DISTINCT_LABELS; i++) {
+                FreeStyleProject project = jenkins.createProject(FreeStyleProject.class, "job-" + i);
+                boolean missing = random.nextDouble() < MISSING_LABEL_FRACTION;
+                project.setAssignedLabel(new LabelAtom(missing ? "missing-" + i : "label-" + i));
+                project.scheduleBuild2((int) TimeUnit.DAYS.toSeconds(1));
+            }
+            items = Queue.getInstance().getItems();
+        }
+
+        @Override
+        public void tearDown() {
+            Queue.getInstance().clear();
+        }
+    }
+
+    @Benchmark
+    public void memoized(JenkinsState state, Blackhole blackhole) {
+        for (Queue.Item item : state.items) {
+            blackhole.consume(QueueTimeout.checkIfAgentExists(item));
+        }
+    }
+
+    @Benchmark
+    public void afterInvalidation(JenkinsState state, Blackhole blackhole) {
+        AgentLabelIndex.get().invalidate();
+        for (Queue.Item item : state.items) {
+            blackhole.consume(QueueTimeout.checkIfAgentExists(item));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.autodesk;
+
+import com.autodesk.config.GlobalTimeoutConfig;
+import hudson.model.FreeStyleProject;
+import hudson.model.ParametersAction;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.PeriodicWork;
+import hudson.model.Queue;
+import hudson.model.StringParameterDefinition;
+import hudson.model.StringParameterValue;
+import hudson.model.labels.LabelAtom;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of one queue timeout sweep, {@link QueueTimeout#checkForTimeout()}, on a Jenkins instance whose queue
+ * holds a given number of items, a share of which is past its queue timeout. With no overdue item this is the common
+ * case between two expiries; otherwise the sweep also hands the overdue items to the
+ * {@link QueueCancellationCoordinator}. An overdue item is gone once a sweep has seen it, so the queue is filled again
+ * before every iteration and each iteration times a single sweep.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class QueueSweepBenchmark {
+
+    // time between the last overdue item and the first item that is not due, it absorbs the delay before the sweep
+    private static final long GAP_MILLIS = 3000;
+
+    @State(Scope.Benchmark)
+    public static class JenkinsState extends JmhBenchmarkState {
+
+        @Param({"100", "1000", "5000", "20000"})
+        public int items;
+
+        @Param({"0", "0.01", "0.1"})
+        public double overdueFraction;
+
+        FreeStyleProject project;
+        QueueTimeout queueTimeout;
+        int scheduled;
+
+        @Override
+        public void setup() throws Exception {
+            GlobalTimeoutConfig.get().setNoSuchNodeQueueTimeoutDuration("24h");
+            project = getJenkins().createProject(FreeStyleProject.class, "queued");
+            project.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("ID", "")));
+            project.setConcurrentBuild(true);
+            project.setAssignedLabel(new LabelAtom("no-agent-has-this"));
+            queueTimeout = PeriodicWork.all().get(QueueTimeout.class);
+        }
+
+        /**
+         * Queues the overdue items first and the others {@link #GAP_MILLIS} later, then sets the queue timeout so
+         * that the sweep finds exactly the overdue items expired
+         */
+        @Setup(Level.Iteration)
+        public void fillQueue() throws Exception {
+            GlobalTimeoutConfig.get().setQueueTimeoutDuration("24h");
+            int overdue = (int) Math.round(items * overdueFraction);
+            schedule(overdue);
+            if (overdue > 0) {
+                Thread.sleep(GAP_MILLIS);
+            }
+            long notDueSince = System.currentTimeMillis();
+            schedule(items - overdue);
+            if (overdue > 0) {
+                // longer than the oldest item that is not due has waited, by one to two seconds of the gap
+                long timeoutSeconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - notDueSince) + 2;
+                GlobalTimeoutConfig.get().setQueueTimeoutDuration(timeoutSeconds + "s");
+            }
+        }
+
+        private void schedule(int count) {
+            // distinct parameters keep the items from being merged, the quiet period keeps them in the queue
+            for (int i = 0; i < count; i++) {
+                project.scheduleBuild2((int) TimeUnit.DAYS.toSeconds(1), null,
+                        new ParametersAction(new StringParameterValue("ID", String.valueOf(scheduled++))));
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void clearQueue() {
+            Queue.getInstance().clear();
+        }
+
+        @Override
+        public void tearDown() {
+            Queue.getInstance().clear();
+        }
+    }
+
+    @Benchmark
+    public void checkForTimeout(JenkinsState state) {
+        state.queueTimeout.checkForTimeout();
+    }
+}
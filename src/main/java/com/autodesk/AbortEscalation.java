@@ -0,0 +1,157 @@
+package com.autodesk;
+
+import com.autodesk.config.GlobalTimeoutConfig;
+import hudson.model.AbstractBuild;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Queue;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.queue.SubTask;
+import jenkins.model.CauseOfInterruption;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.support.steps.ExecutorStepExecution;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous abort ladder for a run. Every step is a short task that never waits: it signals the run and, if the run
+ * may still be building, schedules the next step on the {@link DeadlineScheduler} once the grace period has passed.
+ * The ladder is interrupt, then {@link Executor#doStop()}, then {@link AbstractBuild#doStop()} or
+ * {@link WorkflowRun#doKill()}. The first two steps apply to every executor of the run at once, including the
+ * executors of all the {@code node} blocks of a parallel pipeline (see {@link #executorsOf(Run)}).
+ */
+final class AbortEscalation {
+
+    private static final Logger LOGGER = Logger.getLogger(AbortEscalation.class.getName());
+
+    /**
+     * The steps of the ladder, in order
+     */
+    enum Stage {
+        INTERRUPT,
+        STOP,
+        KILL;
+
+        Stage next() {
+            Stage[] stages = values();
+            return ordinal() + 1 < stages.length ? stages[ordinal() + 1] : null;
+        }
+    }
+
+    private final Run<?, ?> run;
+    private final CauseOfInterruption cause;
+    private final long gracePeriodMillis;
+
+    private AbortEscalation(Run<?, ?> run, CauseOfInterruption cause, long gracePeriodMillis) {
+        this.run = run;
+        this.cause = cause;
+        this.gracePeriodMillis = gracePeriodMillis;
+    }
+
+    /**
+     * Starts aborting a run. Returns as soon as the run has been interrupted
+     * @param run The run to abort
+     * @param cause The cause recorded on the aborted run
+     */
+    static void start(@Nonnull Run<?, ?> run, @Nonnull CauseOfInterruption cause) {
+        long gracePeriodMillis = GlobalTimeoutConfig.settings().getGracePeriodMillis();
+        new AbortEscalation(run, cause, gracePeriodMillis).step(Stage.INTERRUPT);
+    }
+
+    private void step(Stage stage) {
+        if (!run.isBuilding()) {
+            return;
+        }
+        TimeoutMetrics.get().recordAbort(stage);
+        try {
+            if (!perform(stage)) {
+                return;
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Abort step " + stage + " failed for run " + run.getUrl(), e);
+        }
+        Stage next = stage.next();
+        if (next != null) {
+            DeadlineScheduler.get().schedule(System.currentTimeMillis() + gracePeriodMillis, () -> step(next));
+        }
+    }
+
+    /**
+     * Performs one step of the ladder
+     * @param stage The step to perform
+     * @return false if the ladder cannot go any further
+     */
+    private boolean perform(Stage stage) throws Exception {
+        switch (stage) {
+            case INTERRUPT: {
+                List<Executor> executors = executorsOf(run);
+                LOGGER.info("Timeout exceeded, interrupting run " + run.getUrl() + " on " + executors.size()
+                        + " executors");
+                if (executors.isEmpty()) {
+                    LOGGER.warning("Executor is null for run " + run.getUrl());
+                    return false;
+                }
+                for (Executor executor : executors) {
+                    executor.interrupt(Result.ABORTED, cause);
+                }
+                return true;
+            }
+            case STOP: {
+                List<Executor> executors = executorsOf(run);
+                LOGGER.info("Run " + run.getUrl() + " still building after grace period, stopping "
+                        + executors.size() + " executors");
+                for (Executor executor : executors) {
+                    executor.doStop();
+                }
+                return true;
+            }
+            case KILL:
+                LOGGER.info("Run " + run.getUrl() + " still building after executor stop, killing run");
+                if (run instanceof AbstractBuild) {
+                    ((AbstractBuild) run).doStop();
+                } else if (run instanceof WorkflowRun) {
+                    ((WorkflowRun) run).doKill();
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Collects all the executors a run occupies in one pass over the computers: the executor or one-off executor of
+     * the run itself, and for a pipeline the executors of all its {@code node} blocks
+     * @param run A run
+     * @return The executors of the run, empty if it is not executing
+     */
+    @Nonnull
+    static List<Executor> executorsOf(@Nonnull Run<?, ?> run) {
+        List<Executor> executors = new ArrayList<>();
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return executors;
+        }
+        for (Computer computer : jenkins.getComputers()) {
+            for (Executor executor : computer.getAllExecutors()) {
+                Queue.Executable executable = executor.getCurrentExecutable();
+                if (executable == run) {
+                    executors.add(executor);
+                } else if (executable != null) {
+                    SubTask task = executable.getParent();
+                    // only look up the run of the node blocks of the same job
+                    if (task instanceof ExecutorStepExecution.PlaceholderTask && task.getOwnerTask() == run.getParent()
+                            && ((ExecutorStepExecution.PlaceholderTask) task).run() == run) {
+                        executors.add(executor);
+                    }
+                }
+            }
+        }
+        return executors;
+    }
+}
@@ -0,0 +1,123 @@
+package com.autodesk;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.PeriodicWork;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.slaves.ComputerListener;
+import jenkins.model.Jenkins;
+import jenkins.model.NodeListener;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index from label to whether any node or cloud can serve it. Labels are evaluated as expressions with
+ * {@link Label#matches(Node)}, so compound expressions such as {@code linux && docker} are handled, and the answer is
+ * memoized per distinct expression. The memo is dropped whenever nodes or clouds change, via {@link ComputerListener},
+ * {@link NodeListener} and saves of the Jenkins configuration (which holds the clouds).
+ */
+@Extension
+public class AgentLabelIndex extends ComputerListener {
+
+    private volatile Map<String, Boolean> agentExists = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    public static AgentLabelIndex get() {
+        return ComputerListener.all().get(AgentLabelIndex.class);
+    }
+
+    /**
+     * Checks if there is a node (online or offline) or a cloud that can serve a label
+     * @param label The label expression to check
+     * @return true if a node or cloud can serve the label
+     */
+    public boolean hasAgent(@Nonnull Label label) {
+        return agentExists.computeIfAbsent(label.getExpression(), expression -> evaluate(label));
+    }
+
+    /**
+     * Drops the memoized answers. They are evaluated again on the next lookup. Wakes the queue sweep up if items that
+     * passed their "no such node" timeout wait to be checked again (see {@link QueueDeadlineIndex#deferRecheck})
+     */
+    public void invalidate() {
+        agentExists = new ConcurrentHashMap<>();
+        generation.incrementAndGet();
+        QueueDeadlineIndex index = QueueDeadlineIndex.get();
+        QueueTimeout sweep = PeriodicWork.all().get(QueueTimeout.class);
+        if (index != null && sweep != null && index.hasRechecks()) {
+            sweep.scheduleSweep(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @return A number that changes every time the nodes or clouds change
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    private static boolean evaluate(Label label) {
+        // Checking for dynamic cloud agents
+        if (!label.getClouds().isEmpty()) {
+            return true;
+        }
+        // Checking for static agents
+        Jenkins jenkins = Jenkins.get();
+        if (label.matches(jenkins)) {
+            return true;
+        }
+        for (Node node : jenkins.getNodes()) {
+            if (label.matches(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void onConfigurationChange() {
+        invalidate();
+    }
+
+    /**
+     * Drops the index when a node is created, updated or deleted
+     */
+    @Extension
+    public static class NodeChangeListener extends NodeListener {
+
+        @Override
+        protected void onCreated(@Nonnull Node node) {
+            AgentLabelIndex.get().invalidate();
+        }
+
+        @Override
+        protected void onUpdated(@Nonnull Node oldOne, @Nonnull Node newOne) {
+            AgentLabelIndex.get().invalidate();
+        }
+
+        @Override
+        protected void onDeleted(@Nonnull Node node) {
+            AgentLabelIndex.get().invalidate();
+        }
+    }
+
+    /**
+     * Drops the index when the Jenkins configuration, which holds the clouds, is saved
+     */
+    @Extension
+    public static class CloudChangeListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Jenkins) {
+                AgentLabelIndex.get().invalidate();
+            }
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.autodesk;
+
+import com.autodesk.config.TimeoutDuration;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Queue;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.labels.LabelAtom;
+import jenkins.model.CauseOfInterruption;
+import org.jenkinsci.plugins.workflow.actions.BodyInvocationAction;
+import org.jenkinsci.plugins.workflow.actions.WorkspaceAction;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.BlockEndNode;
+import org.jenkinsci.plugins.workflow.graph.BlockStartNode;
+import org.jenkinsci.plugins.workflow.graph.FlowEndNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graph.StepNode;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.steps.FlowInterruptedException;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.support.steps.ExecutorStepExecution;
+
+import javax.annotation.CheckForNull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Limits the time each {@code node} and {@code stage} block of a pipeline may take, as configured by the job timeout
+ * property or the folder timeout policies. A single {@link GraphListener} schedules a deadline on the shared
+ * {@link DeadlineScheduler} when a block starts and cancels it when the block ends, so no thread or timer is created
+ * per step. When a block overruns, only the {@code node} blocks it covers are stopped, which gives their agents back.
+ * A stage that runs on the agent of an enclosing {@code node} block has the steps running in it stopped instead. The
+ * run itself is not aborted and may handle the failure. The label timeout policies apply to each {@code node} block
+ * from the moment it got an agent with a matching label.
+ */
+@Extension
+public class BlockTimeoutListener implements GraphListener {
+
+    private static final Logger LOGGER = Logger.getLogger(BlockTimeoutListener.class.getName());
+
+    /**
+     * The blocks that can have a timeout
+     */
+    public enum Block {
+        NODE("node"),
+        STAGE("stage");
+
+        private final String functionName;
+
+        Block(String functionName) {
+            this.functionName = functionName;
+        }
+
+        @CheckForNull
+        static Block of(@CheckForNull StepDescriptor descriptor) {
+            if (descriptor != null) {
+                for (Block block : values()) {
+                    if (block.functionName.equals(descriptor.getFunctionName())) {
+                        return block;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    // pending block deadlines keyed by the externalizable id of the run, then by the id of the block start node
+    private final Map<String, Map<String, DeadlineScheduler.Deadline>> deadlines = new ConcurrentHashMap<>();
+
+    public static BlockTimeoutListener get() {
+        return ExtensionList.lookupSingleton(BlockTimeoutListener.class);
+    }
+
+    @Override
+    public void onNewHead(FlowNode node) {
+        try {
+            if (node instanceof FlowEndNode) {
+                forget(node.getExecution());
+            } else if (node instanceof BlockEndNode) {
+                end(node.getExecution(), ((BlockEndNode<?>) node).getStartNode());
+            } else if (node instanceof BlockStartNode && node instanceof StepNode) {
+                Block block = Block.of(((StepNode) node).getDescriptor());
+                if (block == null) {
+                    return;
+                }
+                if (node.getAction(BodyInvocationAction.class) == null) {
+                    start(node, block);
+                } else if (block == Block.NODE) {
+                    startOnAgent(node);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to track the timeout of flow node " + node.getId(), e);
+        }
+    }
+
+    private void start(FlowNode node, Block block) throws Exception {
+        Run<?, ?> run = getRun(node.getExecution());
+        if (run == null) {
+            return;
+        }
+        long timeoutMillis = block == Block.NODE
+                ? JobTimeoutCache.get().getNodeTimeoutMillis(run.getParent())
+                : JobTimeoutCache.get().getStageTimeoutMillis(run.getParent());
+        if (timeoutMillis <= 0) {
+            return;
+        }
+        schedule(run, node.getId(), node.getId(), block, timeoutMillis);
+    }
+
+    /**
+     * Applies the label timeout policies to a {@code node} block once it got its agent, since the agents of a pipeline
+     * are only known per {@code node} block
+     * @param bodyStart The start of the body of the {@code node} block
+     */
+    private void startOnAgent(FlowNode bodyStart) throws Exception {
+        Run<?, ?> run = getRun(bodyStart.getExecution());
+        if (run == null || bodyStart.getParents().isEmpty()) {
+            return;
+        }
+        FlowNode stepStart = bodyStart.getParents().get(0);
+        WorkspaceAction workspace = stepStart.getAction(WorkspaceAction.class);
+        if (workspace == null) {
+            return;
+        }
+        List<String> labelAtoms = new ArrayList<>();
+        for (LabelAtom labelAtom : workspace.getLabels()) {
+            labelAtoms.add(labelAtom.getName());
+        }
+        long timeoutMillis = JobTimeoutCache.get().getNodeLabelTimeoutMillis(run.getParent(), labelAtoms);
+        if (timeoutMillis > 0) {
+            // cancelled when the body ends, stops the node step itself
+            schedule(run, bodyStart.getId(), stepStart.getId(), Block.NODE, timeoutMillis);
+        }
+    }
+
+    /**
+     * @param key The id of the start node whose end cancels the deadline
+     * @param blockId The id of the start node of the block to stop when the deadline passes
+     */
+    private void schedule(Run<?, ?> run, String key, String blockId, Block block, long timeoutMillis) {
+        // only ids are captured, so a pending deadline does not keep the run or the flow graph in memory
+        String runId = run.getExternalizableId();
+        DeadlineScheduler.Deadline deadline = DeadlineScheduler.get().schedule(
+                System.currentTimeMillis() + timeoutMillis, () -> expire(runId, key, blockId, block, timeoutMillis));
+        deadlines.computeIfAbsent(runId, id -> new ConcurrentHashMap<>()).put(key, deadline);
+    }
+
+    private void end(FlowExecution execution, BlockStartNode startNode) throws Exception {
+        Run<?, ?> run = getRun(execution);
+        if (run == null) {
+            return;
+        }
+        Map<String, DeadlineScheduler.Deadline> pending = deadlines.get(run.getExternalizableId());
+        if (pending != null) {
+            DeadlineScheduler.Deadline deadline = pending.remove(startNode.getId());
+            if (deadline != null) {
+                DeadlineScheduler.get().cancel(deadline);
+            }
+        }
+    }
+
+    private void forget(FlowExecution execution) throws Exception {
+        Run<?, ?> run = getRun(execution);
+        if (run == null) {
+            return;
+        }
+        Map<String, DeadlineScheduler.Deadline> pending = deadlines.remove(run.getExternalizableId());
+        if (pending != null) {
+            for (DeadlineScheduler.Deadline deadline : pending.values()) {
+                DeadlineScheduler.get().cancel(deadline);
+            }
+        }
+    }
+
+    @CheckForNull
+    private static Run<?, ?> getRun(FlowExecution execution) throws Exception {
+        Queue.Executable executable = execution.getOwner().getExecutable();
+        return executable instanceof Run ? (Run<?, ?>) executable : null;
+    }
+
+    /**
+     * @return The number of blocks with a pending timeout deadline
+     */
+    int getPendingDeadlineCount() {
+        int count = 0;
+        for (Map<String, DeadlineScheduler.Deadline> pending : deadlines.values()) {
+            count += pending.size();
+        }
+        return count;
+    }
+
+    /**
+     * Stops the steps covered by a block that overran its timeout (see {@link #stop}). The run is looked up again from
+     * its id, and the step executions are stopped on the action executor once the flow has listed them
+     */
+    private void expire(String runId, String key, String nodeId, Block block, long timeoutMillis) {
+        Map<String, DeadlineScheduler.Deadline> pending = deadlines.get(runId);
+        if (pending == null || pending.remove(key) == null) {
+            return;  // the block ended in the meantime
+        }
+        Run<?, ?> run = Run.fromExternalizableId(runId);
+        if (!(run instanceof WorkflowRun) || !run.isBuilding()) {
+            return;
+        }
+        FlowExecution execution = ((WorkflowRun) run).getExecution();
+        if (execution == null) {
+            return;
+        }
+        BlockTimeoutInterruption cause = new BlockTimeoutInterruption(block,
+                TimeoutDuration.format(Duration.ofMillis(timeoutMillis)));
+        ListenableFuture<List<StepExecution>> executions = execution.getCurrentExecutions(false);
+        Futures.addCallback(executions, new FutureCallback<List<StepExecution>>() {
+            @Override
+            public void onSuccess(List<StepExecution> stepExecutions) {
+                int stopped = stop(stepExecutions, nodeId, cause, runId);
+                LOGGER.info(block + " block " + nodeId + " of run " + runId + " exceeded its timeout, stopped "
+                        + stopped + " steps");
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                LOGGER.log(Level.WARNING, "Failed to list the steps of run " + runId, t);
+            }
+        }, TimeoutActionExecutor.get()::execute);
+    }
+
+    /**
+     * Stops the {@code node} steps running in a block, or the innermost steps running in the block if it has no
+     * {@code node} step of its own, e.g. a stage inside a {@code node} block or in a declarative pipeline with a top
+     * level agent
+     * @param stepExecutions The steps currently running in the flow
+     * @param blockId The id of the start node of the block
+     * @param cause The cause recorded on the stopped steps
+     * @param runId The externalizable id of the run, for logging
+     * @return The number of steps stopped
+     */
+    private static int stop(List<StepExecution> stepExecutions, String blockId, CauseOfInterruption cause,
+                            String runId) {
+        Map<StepExecution, FlowNode> within = new LinkedHashMap<>();
+        List<StepExecution> targets = new ArrayList<>();
+        for (StepExecution stepExecution : stepExecutions) {
+            FlowNode stepNode = getNode(stepExecution);
+            if (stepNode != null && isWithin(stepNode, blockId)) {
+                if (stepExecution instanceof ExecutorStepExecution) {
+                    targets.add(stepExecution);
+                } else if (!stepNode.getId().equals(blockId)) {
+                    within.put(stepExecution, stepNode);
+                }
+            }
+        }
+        if (targets.isEmpty()) {
+            // stopping a step also stops the steps in its body, so only the innermost steps are stopped
+            Set<String> enclosing = new HashSet<>();
+            for (FlowNode stepNode : within.values()) {
+                for (BlockStartNode block : stepNode.getEnclosingBlocks()) {
+                    enclosing.add(block.getId());
+                }
+            }
+            for (Map.Entry<StepExecution, FlowNode> entry : within.entrySet()) {
+                if (!enclosing.contains(entry.getValue().getId())) {
+                    targets.add(entry.getKey());
+                }
+            }
+        }
+        int stopped = 0;
+        for (StepExecution stepExecution : targets) {
+            try {
+                stepExecution.stop(new FlowInterruptedException(Result.ABORTED, cause));
+                stopped++;
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to stop a step of run " + runId, e);
+            }
+        }
+        return stopped;
+    }
+
+    @CheckForNull
+    private static FlowNode getNode(StepExecution stepExecution) {
+        try {
+            return stepExecution.getContext().get(FlowNode.class);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to locate a step", e);
+            return null;
+        }
+    }
+
+    /**
+     * @param stepNode The flow node of a running step
+     * @param blockId The id of the start node of a block
+     * @return true if the step is the block or runs inside it
+     */
+    private static boolean isWithin(FlowNode stepNode, String blockId) {
+        if (stepNode.getId().equals(blockId)) {
+            return true;
+        }
+        for (BlockStartNode enclosing : stepNode.getEnclosingBlocks()) {
+            if (enclosing.getId().equals(blockId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cause of interruption for a {@code node} block, or the steps of a stage, stopped because the block exceeded its
+     * timeout
+     */
+    public static class BlockTimeoutInterruption extends CauseOfInterruption {
+
+        private final Block block;
+        private final String timeout;  // the limit at the time of the interruption
+
+        BlockTimeoutInterruption(Block block, String timeout) {
+            this.block = block;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return String.format("%s block stopped after exceeding its time limit of %s",
+                    block == Block.NODE ? "Node" : "Stage", timeout);
+        }
+    }
+}
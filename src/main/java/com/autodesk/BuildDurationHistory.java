@@ -0,0 +1,136 @@
+package com.autodesk;
+
+import com.autodesk.config.GlobalTimeoutConfig;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a {@link DurationSketch} of the successful build durations of every job, stored in
+ * {@code build-durations.xml} next to the job configuration. The sketch is updated when a build completes and read
+ * back from that single file, so the adaptive timeout of a job never requires loading its builds. Durations are only
+ * recorded while adaptive timeouts are enabled, so the feature costs nothing when it is off.
+ */
+@Extension
+public class BuildDurationHistory extends RunListener<Run<?, ?>> {
+
+    private static final Logger LOGGER = Logger.getLogger(BuildDurationHistory.class.getName());
+    static final String FILE_NAME = "build-durations.xml";
+
+    // keyed by the full name of the job. Entries are dropped when the job is renamed, moved or deleted, and a renamed
+    // or moved job reads its sketch back from the file that moved with it
+    private final Map<String, DurationSketch> sketches = new ConcurrentHashMap<>();
+
+    public static BuildDurationHistory get() {
+        return RunListener.all().get(BuildDurationHistory.class);
+    }
+
+    @Override
+    public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+        if (GlobalTimeoutConfig.settings().getAdaptiveTimeoutFactor() <= 0) {
+            sketches.clear();  // nothing reads them until adaptive timeouts are enabled again
+            return;
+        }
+        if (run.getResult() != Result.SUCCESS) {
+            return;
+        }
+        Job<?, ?> job = run.getParent();
+        DurationSketch sketch = getSketch(job);
+        sketch.add(run.getDuration());
+        try {
+            getFile(job).write(sketch.encode());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the build durations of " + job.getFullName(), e);
+        }
+        // the adaptive timeout of the job has changed
+        JobTimeoutCache.get().invalidate(job.getFullName());
+    }
+
+    /**
+     * @param job A job
+     * @param quantile The quantile, between 0 and 1, e.g. 0.95
+     * @param minBuilds The number of successful builds needed for a meaningful answer
+     * @return The quantile of the recent successful build durations in milliseconds, or 0 if the job has fewer
+     * builds than required
+     */
+    long getQuantileMillis(@Nonnull Job<?, ?> job, double quantile, int minBuilds) {
+        DurationSketch sketch = getSketch(job);
+        if (sketch.count() < Math.max(1, minBuilds)) {
+            return 0;
+        }
+        return sketch.quantile(quantile);
+    }
+
+    private DurationSketch getSketch(Job<?, ?> job) {
+        String name = job.getFullName();
+        DurationSketch sketch = sketches.get(name);
+        if (sketch == null) {
+            // read outside of the map, so that loading one job never blocks the lookups of the others. Concurrent
+            // loads of the same job read the same file, the first one wins
+            DurationSketch loaded = load(job);
+            sketch = sketches.putIfAbsent(name, loaded);
+            if (sketch == null) {
+                sketch = loaded;
+            }
+        }
+        return sketch;
+    }
+
+    private DurationSketch load(Job<?, ?> job) {
+        XmlFile file = getFile(job);
+        if (file.exists()) {
+            try {
+                Object text = file.read();
+                if (text instanceof String) {
+                    return DurationSketch.decode((String) text);
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load the build durations of " + job.getFullName(), e);
+            }
+        }
+        return new DurationSketch();
+    }
+
+    private static XmlFile getFile(Job<?, ?> job) {
+        return new XmlFile(new File(job.getRootDir(), FILE_NAME));
+    }
+
+    /**
+     * @return The number of jobs whose sketch is held in memory
+     */
+    int size() {
+        return sketches.size();
+    }
+
+    /**
+     * Drops the sketches of renamed, moved and deleted jobs
+     */
+    @Extension
+    public static class JobChangeListener extends ItemListener {
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            // called for renames and moves, and for every item below a renamed or moved folder
+            BuildDurationHistory.get().sketches.remove(oldFullName);
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            BuildDurationHistory.get().sketches.remove(item.getFullName());
+        }
+    }
+}
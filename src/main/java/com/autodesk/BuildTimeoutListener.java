@@ -1,23 +1,25 @@
 package com.autodesk;
 
-import com.autodesk.config.GlobalTimeoutConfig;
-import com.autodesk.config.JobTimeoutProperty;
 import hudson.Extension;
-import hudson.model.AbstractBuild;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Computer;
 import hudson.model.Executor;
-import hudson.model.JobProperty;
-import hudson.model.Result;
+import hudson.model.Queue;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.model.listeners.RunListener;
 import jenkins.model.CauseOfInterruption;
+import jenkins.model.Jenkins;
 import org.jenkinsci.Symbol;
-import org.jenkinsci.plugins.workflow.job.WorkflowRun;
-import jenkins.util.Timer;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.FlowExecutionListener;
+import org.jenkinsci.plugins.workflow.flow.FlowExecutionOwner;
 
-import javax.servlet.ServletException;
+import javax.annotation.Nonnull;
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,73 +30,175 @@ public class BuildTimeoutListener extends RunListener<Run<?,?>> {
 
     private static final Logger LOGGER = Logger.getLogger(BuildTimeoutListener.class.getName());
 
+    // deadlines of the building runs keyed by the externalizable id of the run. Fired deadlines stay until the run
+    // completes, so a run that is being aborted is not tracked again
+    private final Map<String, DeadlineScheduler.Deadline> deadlines = new ConcurrentHashMap<>();
+
     public BuildTimeoutListener() {
 
     }
 
+    public static BuildTimeoutListener get() {
+        return RunListener.all().get(BuildTimeoutListener.class);
+    }
+
     @Override
     public void onStarted(Run<?, ?> run, TaskListener listener) {
+        track(run);
+    }
 
+    /**
+     * Schedules the deadline of a run from its start time. Runs that already have a deadline are skipped, and runs
+     * that are already past their deadline are aborted right away
+     * @param run A run that is building
+     * @return true if a deadline was scheduled
+     */
+    boolean track(@Nonnull Run<?, ?> run) {
         // TODO - refactor to split the failure cause
-        Integer timeout = getTimeout(run);
-        if (timeout != null) {
-            Timer.get().schedule(() -> {
-                try {
-                    Thread.currentThread().setName("Global Timeout plugin: " + run.getUrl());
-                    abortBuild(run);
-                } catch (Exception e) {
-                    LOGGER.log(Level.SEVERE, "Abort Build failed for run " + run.getUrl(), e);
-                } finally {
-                    Thread.currentThread().setName("Global Timeout plugin: Idle thread in pool");
-                }
-            }, timeout, TimeUnit.MINUTES);
+        String runId = run.getExternalizableId();
+        if (deadlines.containsKey(runId)) {
+            return false;
         }
+        long timeoutMillis = JobTimeoutCache.get().getTimeoutMillis(run);
+        if (timeoutMillis <= 0) {
+            return false;
+        }
+        long deadlineMillis = run.getStartTimeInMillis() + timeoutMillis;
+        DeadlineScheduler scheduler = DeadlineScheduler.get();
+        // only the id is captured, so a pending deadline does not keep the run, its actions and its parameters in
+        // memory. The run is looked up again when the deadline fires
+        DeadlineScheduler.Deadline deadline = scheduler.schedule(deadlineMillis, () -> expire(runId));
+        if (deadlines.putIfAbsent(runId, deadline) != null) {
+            scheduler.cancel(deadline);
+            return false;
+        }
+        return true;
     }
 
-    private Integer getTimeout(Run run) {
+    /**
+     * Aborts a run whose deadline has passed, if it is still building
+     * @param runId The externalizable id of the run, i.e. the full name of the job and the build number
+     */
+    private void expire(String runId) {
+        Run<?, ?> run = Run.fromExternalizableId(runId);
+        if (run == null || !run.isBuilding()) {
+            deadlines.remove(runId);
+            return;
+        }
+        try {
+            abortBuild(run);
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Abort Build failed for run " + run.getUrl(), e);
+        }
+    }
 
-        // check for job specific timeout
-        JobProperty buildTimeoutProperty = run.getParent().getProperty(JobTimeoutProperty.class);
-        if (buildTimeoutProperty instanceof JobTimeoutProperty) {
-            Integer buildTimeout = ((JobTimeoutProperty) buildTimeoutProperty).getBuildTimeout();
-            if (buildTimeout != null && buildTimeout > 0) {
-                return buildTimeout;
+    /**
+     * Rebuilds the deadlines of the runs other than pipelines that are executing after a restart, for which
+     * {@link #onStarted} does not fire again. Resumed pipelines are tracked by {@link ResumeListener}. Only the
+     * executors are scanned, so no build history is loaded
+     * @return The number of runs whose deadline was scheduled or which were aborted because they are overdue
+     */
+    int rehydrate() {
+        int count = 0;
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return count;
+        }
+        for (Computer computer : jenkins.getComputers()) {
+            for (Executor executor : computer.getExecutors()) {
+                count += rehydrate(executor);
+            }
+            for (Executor executor : computer.getOneOffExecutors()) {
+                count += rehydrate(executor);
             }
         }
-        Integer globalTimeout = GlobalTimeoutConfig.get().getBuildTimeout();
-        if (globalTimeout != null && globalTimeout > 0) {
-            return globalTimeout;
-        } else {
-            return null;
+        return count;
+    }
+
+    private int rehydrate(Executor executor) {
+        Queue.Executable executable = executor.getCurrentExecutable();
+        if (executable instanceof Run && !(executable instanceof FlowExecutionOwner.Executable)) {
+            Run<?, ?> run = (Run<?, ?>) executable;
+            if (run.isBuilding() && track(run)) {
+                return 1;
+            }
         }
+        return 0;
     }
 
-    void abortBuild(Run run) throws IOException, ServletException, InterruptedException {
-        if (run.isBuilding()) {
-            // TODO - insert log to say that the build has been killed
-            LOGGER.info("Timeout exceeded, interrupting run " + run.getUrl());
-            Executor executor = run.getExecutor();
-            if(executor == null) {
-                LOGGER.warning("Executor is null for run " + run.getUrl());
-                return;
+    /**
+     * Rehydrates the build deadlines of the executing runs other than pipelines once Jenkins has started
+     */
+    @Initializer(after = InitMilestone.COMPLETED)
+    public static void rehydrateDeadlines() {
+        DeadlineScheduler.get().schedule(System.currentTimeMillis(), () -> {
+            BuildTimeoutListener listener = get();
+            if (listener != null) {
+                int count = listener.rehydrate();
+                if (count > 0) {
+                    LOGGER.info("Rehydrated the timeout deadlines of " + count + " executing builds");
+                }
             }
-            executor.interrupt(Result.ABORTED, new JobTimeoutInterruption());
-
-            // Wait for grace period duration to allow build to exit gracefully
-            Integer gracePeriod = GlobalTimeoutConfig.get().getGracePeriod();
-            Thread.sleep(TimeUnit.SECONDS.toMillis(gracePeriod));
-
-            if (run.isBuilding()) {
-                executor.doStop();
-                if (run instanceof AbstractBuild) {
-                    ((AbstractBuild) run).doStop();
-                } else if (run instanceof WorkflowRun) {
-                    ((WorkflowRun) run).doKill();
+        });
+    }
+
+    /**
+     * Rebuilds the deadline of each pipeline as it resumes after a restart, whenever that happens
+     */
+    @Extension
+    public static class ResumeListener extends FlowExecutionListener {
+
+        @Override
+        public void onResumed(@Nonnull FlowExecution execution) {
+            try {
+                Queue.Executable executable = execution.getOwner().getExecutable();
+                BuildTimeoutListener listener = get();
+                if (executable instanceof Run && listener != null && listener.track((Run<?, ?>) executable)) {
+                    LOGGER.fine("Rehydrated the timeout deadline of resumed run " + ((Run<?, ?>) executable).getUrl());
                 }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to rehydrate the timeout deadline of a resumed pipeline", e);
             }
         }
     }
 
+    @Override
+    public void onCompleted(Run<?, ?> run, TaskListener listener) {
+        cancelDeadline(run);
+    }
+
+    @Override
+    public void onDeleted(Run<?, ?> run) {
+        cancelDeadline(run);
+    }
+
+    /**
+     * Cancels the pending deadline of a run, if any, so that finished runs do not stay in the scheduler
+     * @param run The run that is no longer building
+     */
+    private void cancelDeadline(Run<?, ?> run) {
+        DeadlineScheduler.Deadline deadline = deadlines.remove(run.getExternalizableId());
+        if (deadline != null) {
+            DeadlineScheduler.get().cancel(deadline);
+        }
+    }
+
+    /**
+     * @return The number of building runs with a timeout deadline
+     */
+    int getPendingDeadlineCount() {
+        return deadlines.size();
+    }
+
+    /**
+     * Starts aborting a run that exceeded its timeout. The abort escalates asynchronously (see {@link AbortEscalation})
+     * so this method never waits for the grace period
+     * @param run The run to abort
+     */
+    void abortBuild(Run run) {
+        AbortEscalation.start(run, new JobTimeoutInterruption());
+    }
+
     public static class JobTimeoutInterruption extends CauseOfInterruption {
 
         @Override
@@ -0,0 +1,186 @@
+package com.autodesk;
+
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import jenkins.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single deadline scheduler owned by the plugin. Deadlines are kept in a {@link TimingWheel} that is advanced by one
+ * dedicated ticker thread, so scheduling and cancelling a deadline are O(1) and the number of pending entries always
+ * matches the number of deadlines that are still relevant. Expired actions are handed off to the
+ * {@link TimeoutActionExecutor}, which defers them while it is saturated but never drops them; only trivial
+ * re-submissions scheduled through {@link #scheduleOnTicker} run on the ticker thread itself.
+ */
+public final class DeadlineScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(DeadlineScheduler.class.getName());
+
+    /**
+     * Resolution of the wheel in milliseconds. Deadlines fire at most one tick late.
+     */
+    static final long TICK_MILLIS = SystemProperties.getLong(DeadlineScheduler.class.getName() + ".tickMillis", 1000L);
+
+    private static DeadlineScheduler instance;
+
+    private final Object lock = new Object();
+    private final long tickMillis;
+    private final TimingWheel wheel;
+    private final ScheduledExecutorService ticker;
+
+    private DeadlineScheduler(long tickMillis) {
+        this.tickMillis = tickMillis;
+        this.wheel = new TimingWheel(System.currentTimeMillis() / tickMillis);
+        this.ticker = Executors.newSingleThreadScheduledExecutor(
+                new NamingThreadFactory(new DaemonThreadFactory(), "global-build-timeout deadline ticker"));
+        this.ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The deadline scheduler of the plugin, started on first use
+     */
+    @Nonnull
+    public static synchronized DeadlineScheduler get() {
+        if (instance == null) {
+            instance = new DeadlineScheduler(TICK_MILLIS);
+        }
+        return instance;
+    }
+
+    /**
+     * Stops the ticker thread when Jenkins shuts down. Pending deadlines are dropped.
+     */
+    @Terminator
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.ticker.shutdownNow();
+            instance = null;
+        }
+    }
+
+    /**
+     * A pending deadline. Returned by {@link #schedule(long, Runnable)} and used as the handle to cancel it.
+     */
+    public static final class Deadline extends TimingWheel.Node {
+
+        private final long deadlineMillis;
+        private final Runnable action;
+        private final boolean onTicker;
+
+        private Deadline(long deadlineMillis, Runnable action, boolean onTicker) {
+            this.deadlineMillis = deadlineMillis;
+            this.action = action;
+            this.onTicker = onTicker;
+        }
+
+        /**
+         * @return The time in epoch milliseconds at which this deadline fires
+         */
+        public long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+    }
+
+    /**
+     * Schedules an action to run once the deadline has passed. Actions whose deadline has already passed are
+     * dispatched immediately.
+     * @param deadlineMillis The deadline in epoch milliseconds
+     * @param action The action to run. It must not block
+     * @return The handle of the pending deadline
+     */
+    @Nonnull
+    public Deadline schedule(long deadlineMillis, @Nonnull Runnable action) {
+        return schedule(new Deadline(deadlineMillis, action, false));
+    }
+
+    /**
+     * Schedules a trivial action that runs on the ticker thread itself instead of the action executor. Used to
+     * re-submit work the executor could not accept, which must not go back through the executor
+     * @param deadlineMillis The deadline in epoch milliseconds. Must be in the future
+     * @param action The action to run. It must return immediately
+     */
+    void scheduleOnTicker(long deadlineMillis, @Nonnull Runnable action) {
+        schedule(new Deadline(deadlineMillis, action, true));
+    }
+
+    private Deadline schedule(Deadline deadline) {
+        long deadlineMillis = deadline.deadlineMillis;
+        // round up so a deadline never fires early
+        deadline.expiryTick = (deadlineMillis + tickMillis - 1) / tickMillis;
+        synchronized (lock) {
+            if (deadline.expiryTick > wheel.currentTick()) {
+                wheel.add(deadline);
+                return deadline;
+            }
+        }
+        dispatch(deadline);
+        return deadline;
+    }
+
+    /**
+     * Cancels a pending deadline
+     * @param deadline The deadline to cancel
+     * @return true if the deadline was still pending and will not fire
+     */
+    public boolean cancel(@Nonnull Deadline deadline) {
+        synchronized (lock) {
+            return wheel.remove(deadline);
+        }
+    }
+
+    /**
+     * @param deadline A deadline returned by this scheduler
+     * @return true if the deadline has neither fired nor been cancelled yet
+     */
+    public boolean isPending(@Nonnull Deadline deadline) {
+        synchronized (lock) {
+            return deadline.isScheduled();
+        }
+    }
+
+    /**
+     * @return The number of deadlines that are still pending
+     */
+    public int size() {
+        synchronized (lock) {
+            return wheel.size();
+        }
+    }
+
+    private void tick() {
+        List<Deadline> expired = new ArrayList<>();
+        try {
+            long now = System.currentTimeMillis() / tickMillis;
+            synchronized (lock) {
+                wheel.advanceTo(now, node -> expired.add((Deadline) node));
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to advance the deadline wheel", e);
+        }
+        for (Deadline deadline : expired) {
+            dispatch(deadline);
+        }
+    }
+
+    private void dispatch(Deadline deadline) {
+        if (!deadline.onTicker) {
+            // never dropped, a lost deadline would leave its run or item tracked but never expired
+            TimeoutActionExecutor.get().execute(deadline.action);
+            return;
+        }
+        try {
+            deadline.action.run();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Deadline action failed", e);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.autodesk;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * Compact streaming sketch of build durations. Durations are counted in logarithmic buckets that grow by 10%, so any
+ * quantile is answered within 10% of the true value from a fixed array of counters, whatever the number of builds.
+ *
+ * The sketch keeps two generations of {@link #GENERATION_SIZE} builds: once the current generation is full it replaces
+ * the previous one, so quantiles follow the recent builds and older builds are forgotten.
+ */
+final class DurationSketch {
+
+    static final int GENERATION_SIZE = 50;
+    private static final double GAMMA = 1.1;
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final int BUCKETS = 256;  // the last bucket, reported as ~415 days, holds everything above ~378 days
+
+    private int[] current = new int[BUCKETS];
+    private int currentCount;
+    private int[] previous = new int[BUCKETS];
+    private int previousCount;
+
+    /**
+     * Adds a duration to the current generation
+     * @param millis The duration in milliseconds
+     */
+    synchronized void add(long millis) {
+        if (currentCount >= GENERATION_SIZE) {
+            int[] recycled = previous;
+            previous = current;
+            previousCount = currentCount;
+            Arrays.fill(recycled, 0);
+            current = recycled;
+            currentCount = 0;
+        }
+        current[bucket(millis)]++;
+        currentCount++;
+    }
+
+    /**
+     * @return The number of durations in both generations
+     */
+    synchronized int count() {
+        return currentCount + previousCount;
+    }
+
+    /**
+     * @param quantile The quantile, between 0 and 1, e.g. 0.95
+     * @return The upper bound of the bucket holding the quantile in milliseconds, or 0 if the sketch is empty
+     */
+    synchronized long quantile(double quantile) {
+        int total = currentCount + previousCount;
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += current[i] + previous[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    private static int bucket(long millis) {
+        if (millis <= 1) {
+            return 0;
+        }
+        return (int) Math.min(BUCKETS - 1, Math.ceil(Math.log(millis) / LOG_GAMMA));
+    }
+
+    private static long upperBound(int bucket) {
+        return (long) Math.ceil(Math.pow(GAMMA, bucket));
+    }
+
+    /**
+     * Encodes the sketch as {@code count|bucket:count,...;count|bucket:count,...}, current generation first, listing
+     * only the buckets in use
+     * @return The encoded sketch
+     */
+    @Nonnull
+    synchronized String encode() {
+        StringBuilder text = new StringBuilder();
+        encode(text, current, currentCount);
+        text.append(';');
+        encode(text, previous, previousCount);
+        return text.toString();
+    }
+
+    private static void encode(StringBuilder text, int[] buckets, int count) {
+        text.append(count).append('|');
+        boolean first = true;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (buckets[i] > 0) {
+                if (!first) {
+                    text.append(',');
+                }
+                text.append(i).append(':').append(buckets[i]);
+                first = false;
+            }
+        }
+    }
+
+    /**
+     * @param text A sketch encoded by {@link #encode()}
+     * @return The decoded sketch, or an empty sketch if the text is missing or malformed
+     */
+    @Nonnull
+    static DurationSketch decode(@CheckForNull String text) {
+        DurationSketch sketch = new DurationSketch();
+        if (text == null) {
+            return sketch;
+        }
+        String[] generations = text.split(";", -1);
+        try {
+            if (generations.length == 2) {
+                sketch.currentCount = decode(generations[0], sketch.current);
+                sketch.previousCount = decode(generations[1], sketch.previous);
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return new DurationSketch();
+        }
+        return sketch;
+    }
+
+    private static int decode(String text, int[] buckets) {
+        int separator = text.indexOf('|');
+        int count = Integer.parseInt(text.substring(0, separator));
+        String entries = text.substring(separator + 1);
+        if (!entries.isEmpty()) {
+            for (String entry : entries.split(",")) {
+                int colon = entry.indexOf(':');
+                buckets[Integer.parseInt(entry.substring(0, colon))] = Integer.parseInt(entry.substring(colon + 1));
+            }
+        }
+        return count;
+    }
+}
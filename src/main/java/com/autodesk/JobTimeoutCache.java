@@ -0,0 +1,281 @@
+package com.autodesk;
+
+import com.autodesk.config.GlobalTimeoutConfig;
+import com.autodesk.config.JobTimeoutProperty;
+import com.autodesk.config.TimeoutPolicy;
+import com.autodesk.config.TimeoutSettings;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Executor;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Node;
+import hudson.model.OneOffExecutor;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.labels.LabelAtom;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the resolved timeout of each job, keyed by the full name of the job, so that starting a build only costs a
+ * map lookup instead of reading the job properties and the global configuration. Only the label policies, which
+ * depend on the agent a build runs on, are resolved per build.
+ *
+ * Entries are dropped when the job is reconfigured, saved, renamed, moved or deleted, and the whole cache is dropped
+ * when the global configuration is saved.
+ */
+@Extension
+public class JobTimeoutCache extends ItemListener {
+
+    private static final double ADAPTIVE_QUANTILE = 0.95;
+    private static final long MIN_ADAPTIVE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Map<String, Resolved> cache = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong();  // bumped by every invalidation
+
+    public static JobTimeoutCache get() {
+        return ItemListener.all().get(JobTimeoutCache.class);
+    }
+
+    /**
+     * The timeout of a job, resolved as far as possible without knowing the agent
+     */
+    private static final class Resolved {
+        final long jobMillis;  // job timeout property, adaptive timeout or folder policy, 0 if none
+        final TimeoutPolicy labelPolicy;  // null if there are no label policies
+        final long fallbackMillis;  // job type policy or global build timeout, 0 if none
+        final long nodeMillis;  // pipeline node block timeout, 0 if none
+        final long stageMillis;  // pipeline stage block timeout, 0 if none
+
+        Resolved(long jobMillis, TimeoutPolicy labelPolicy, long fallbackMillis, long nodeMillis, long stageMillis) {
+            this.jobMillis = jobMillis;
+            this.labelPolicy = labelPolicy;
+            this.fallbackMillis = fallbackMillis;
+            this.nodeMillis = nodeMillis;
+            this.stageMillis = stageMillis;
+        }
+    }
+
+    /**
+     * Resolves the timeout of a run: the job timeout property, then the adaptive timeout (see
+     * {@link BuildDurationHistory}), then the timeout policies (see {@link TimeoutPolicy}), then the global build
+     * timeout. The label policies only apply to runs that occupy an executor of an agent; for pipelines they limit
+     * each {@code node} block instead (see {@link #getNodeLabelTimeoutMillis})
+     * @param run A run that has started
+     * @return The timeout of the run in milliseconds, or 0 if it has no timeout
+     */
+    long getTimeoutMillis(@Nonnull Run<?, ?> run) {
+        Job<?, ?> job = run.getParent();
+        Resolved resolved = getResolved(job);
+        if (resolved.jobMillis > 0) {
+            return resolved.jobMillis;
+        }
+        if (resolved.labelPolicy != null) {
+            long labelMillis = resolved.labelPolicy.resolveLabels(getLabelAtoms(run));
+            if (labelMillis > 0) {
+                return labelMillis;
+            }
+        }
+        return resolved.fallbackMillis;
+    }
+
+    /**
+     * @param job A pipeline job
+     * @return The timeout of each {@code node} block of the job in milliseconds, from the job timeout property or the
+     * folder policies, or 0 if there is no timeout
+     */
+    long getNodeTimeoutMillis(@Nonnull Job<?, ?> job) {
+        return getResolved(job).nodeMillis;
+    }
+
+    /**
+     * @param job A pipeline job
+     * @return The timeout of each {@code stage} block of the job in milliseconds, from the job timeout property or
+     * the folder policies, or 0 if there is no timeout
+     */
+    long getStageTimeoutMillis(@Nonnull Job<?, ?> job) {
+        return getResolved(job).stageMillis;
+    }
+
+    /**
+     * @param job A pipeline job
+     * @param labelAtoms The labels of the agent a {@code node} block of the job got
+     * @return The shortest timeout of the label policies of the agent in milliseconds, or 0 if none applies or the
+     * job timeout property, the adaptive timeout or a folder policy takes precedence
+     */
+    long getNodeLabelTimeoutMillis(@Nonnull Job<?, ?> job, @Nonnull Collection<String> labelAtoms) {
+        Resolved resolved = getResolved(job);
+        if (resolved.jobMillis > 0 || resolved.labelPolicy == null) {
+            return 0;
+        }
+        return resolved.labelPolicy.resolveLabels(labelAtoms);
+    }
+
+    /**
+     * @param job A job
+     * @return The cached timeout of the job, resolved on first use. Resolving may read the build durations of the job
+     * from disk, so it happens outside of the map and never blocks the lookups of other jobs
+     */
+    private Resolved getResolved(Job<?, ?> job) {
+        String name = job.getFullName();
+        Resolved resolved = cache.get(name);
+        if (resolved != null) {
+            return resolved;
+        }
+        long generation = invalidations.get();
+        resolved = resolve(job);
+        Resolved existing = cache.putIfAbsent(name, resolved);
+        if (existing != null) {
+            return existing;
+        }
+        if (invalidations.get() != generation) {
+            // invalidated while resolving, the answer may be stale. It is used once but not kept
+            cache.remove(name, resolved);
+        }
+        return resolved;
+    }
+
+    private static Resolved resolve(Job<?, ?> job) {
+        TimeoutSettings settings = GlobalTimeoutConfig.settings();
+        TimeoutPolicy policy = settings.getPolicy();
+        long jobMillis = 0;
+        long nodeMillis = 0;
+        long stageMillis = 0;
+        // check for job specific timeout
+        JobTimeoutProperty property = job.getProperty(JobTimeoutProperty.class);
+        if (property != null) {
+            jobMillis = property.getBuildTimeoutMillis();
+            nodeMillis = property.getNodeTimeoutMillis();
+            stageMillis = property.getStageTimeoutMillis();
+        }
+        if (nodeMillis <= 0) {
+            nodeMillis = policy.resolveFolderNodeTimeout(job.getFullName());
+        }
+        if (stageMillis <= 0) {
+            stageMillis = policy.resolveFolderStageTimeout(job.getFullName());
+        }
+        if (jobMillis <= 0 && settings.getAdaptiveTimeoutFactor() > 0) {
+            long p95 = BuildDurationHistory.get().getQuantileMillis(job, ADAPTIVE_QUANTILE,
+                    settings.getAdaptiveTimeoutMinBuilds());
+            if (p95 > 0) {
+                jobMillis = Math.max(MIN_ADAPTIVE_TIMEOUT_MILLIS, (long) (settings.getAdaptiveTimeoutFactor() * p95));
+            }
+        }
+        if (jobMillis <= 0) {
+            jobMillis = policy.resolveFolder(job.getFullName());
+        }
+        long fallbackMillis = policy.resolveJobType(job.getClass());
+        if (fallbackMillis <= 0) {
+            fallbackMillis = settings.getBuildTimeoutMillis();
+        }
+        return new Resolved(jobMillis, policy.hasLabelRules() ? policy : null, fallbackMillis, nodeMillis,
+                stageMillis);
+    }
+
+    /**
+     * @param run A run that has started
+     * @return The labels of the agent the run is executing on. Empty for runs on a flyweight executor, e.g. pipelines,
+     * whose agents are only known per {@code node} block (see {@link BlockTimeoutListener})
+     */
+    private static Collection<String> getLabelAtoms(Run<?, ?> run) {
+        Executor executor = run.getExecutor();
+        if (executor == null || executor instanceof OneOffExecutor) {
+            return Collections.emptyList();
+        }
+        Node node = executor.getOwner().getNode();
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        List<String> labelAtoms = new ArrayList<>();
+        for (LabelAtom labelAtom : node.getAssignedLabels()) {
+            labelAtoms.add(labelAtom.getName());
+        }
+        return labelAtoms;
+    }
+
+    /**
+     * Drops the cached timeout of a job
+     * @param fullName The full name of the job
+     */
+    void invalidate(@Nonnull String fullName) {
+        invalidations.incrementAndGet();
+        cache.remove(fullName);
+    }
+
+    /**
+     * Drops the cached timeouts of all the jobs below a folder
+     * @param fullName The full name of the folder
+     */
+    void invalidateFolder(@Nonnull String fullName) {
+        invalidations.incrementAndGet();
+        String prefix = fullName + "/";
+        cache.keySet().removeIf(name -> name.startsWith(prefix));
+    }
+
+    /**
+     * Drops all cached timeouts
+     */
+    void invalidateAll() {
+        invalidations.incrementAndGet();
+        cache.clear();
+    }
+
+    private void invalidate(Item item, String fullName) {
+        if (item instanceof Job) {
+            invalidate(fullName);  // jobs have no children
+        } else {
+            invalidateFolder(fullName);
+        }
+    }
+
+    /**
+     * @return The number of jobs with a cached timeout
+     */
+    int size() {
+        return cache.size();
+    }
+
+    @Override
+    public void onUpdated(Item item) {
+        invalidate(item, item.getFullName());
+    }
+
+    @Override
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+        // called for renames and moves, and for every item below a renamed or moved folder
+        invalidate(oldFullName);
+    }
+
+    @Override
+    public void onDeleted(Item item) {
+        invalidate(item, item.getFullName());
+    }
+
+    /**
+     * Drops cached timeouts when a job (e.g. through the {@code properties} pipeline step) or the global configuration
+     * is saved
+     */
+    @Extension
+    public static class ConfigChangeListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Job) {
+                JobTimeoutCache.get().invalidate(((Job<?, ?>) o).getFullName());
+            } else if (o instanceof GlobalTimeoutConfig) {
+                JobTimeoutCache.get().invalidateAll();
+            }
+        }
+    }
+}
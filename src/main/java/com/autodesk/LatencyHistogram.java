@@ -0,0 +1,82 @@
+package com.autodesk;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-memory histogram of latencies. Values are counted in logarithmic buckets that grow by 20%, from a millisecond
+ * to about four months, so quantiles are answered within 20% of the true value. Recording is lock free and never
+ * allocates, so it can be called from queue listeners.
+ */
+final class LatencyHistogram {
+
+    private static final double GAMMA = 1.2;
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final int BUCKETS = 128;  // the last bucket, reported as ~132 days, holds everything above ~110 days
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMillis = new LongAdder();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    /**
+     * @param millis A latency in milliseconds
+     */
+    void record(long millis) {
+        long value = Math.max(0, millis);
+        buckets.incrementAndGet(bucket(value));
+        count.increment();
+        sumMillis.add(value);
+        maxMillis.accumulateAndGet(value, Math::max);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getSumMillis() {
+        return sumMillis.sum();
+    }
+
+    long getMaxMillis() {
+        return maxMillis.get();
+    }
+
+    /**
+     * @param quantile The quantile, between 0 and 1, e.g. 0.99
+     * @return The upper bound of the bucket holding the quantile in milliseconds, never above the largest value
+     * recorded, or 0 if nothing was recorded
+     */
+    long quantile(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxMillis.get());
+            }
+        }
+        return maxMillis.get();
+    }
+
+    private static int bucket(long millis) {
+        if (millis <= 1) {
+            return 0;
+        }
+        return (int) Math.min(BUCKETS - 1, Math.ceil(Math.log(millis) / LOG_GAMMA));
+    }
+
+    private static long upperBound(int bucket) {
+        return (long) Math.ceil(Math.pow(GAMMA, bucket));
+    }
+}
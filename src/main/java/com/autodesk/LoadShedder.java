@@ -0,0 +1,115 @@
+package com.autodesk;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Picks the queue items to cancel when the queue has passed one of its high-water marks, until it is back under the
+ * low-water marks. Items are cancelled lowest priority first. Within a priority, the extra items of a task that is
+ * queued more than once go first, then the oldest item of each label in turn, so that no label loses all its items
+ * before the others.
+ */
+final class LoadShedder {
+
+    private static final Comparator<Candidate<?>> ORDER = Comparator
+            .comparingInt((Candidate<?> candidate) -> candidate.priority)
+            .thenComparing(candidate -> !candidate.duplicate)
+            .thenComparingInt(candidate -> candidate.labelRank)
+            .thenComparingLong(candidate -> candidate.inQueueSince);
+
+    private static final Comparator<Candidate<?>> BY_AGE =
+            Comparator.comparingLong(candidate -> candidate.inQueueSince);
+
+    private LoadShedder() {
+    }
+
+    /**
+     * A queue item that may be cancelled
+     * @param <T> The type of the item
+     */
+    static final class Candidate<T> {
+        final T item;
+        final int priority;
+        final String label;
+        final String task;
+        final long inQueueSince;
+        int labelRank;  // position of the item among the items of its label and priority, oldest first
+        boolean duplicate;  // an older item of the same task is queued
+        boolean shed;
+
+        /**
+         * @param item The queue item
+         * @param priority The priority of the item (see {@link QueueItemPriority})
+         * @param label The label expression of the item, empty if it has none
+         * @param task A key of the task of the item
+         * @param inQueueSince The time (epoch milliseconds) the item entered the queue
+         */
+        Candidate(T item, int priority, @Nonnull String label, @Nonnull String task, long inQueueSince) {
+            this.item = item;
+            this.priority = priority;
+            this.label = label;
+            this.task = task;
+            this.inQueueSince = inQueueSince;
+        }
+    }
+
+    /**
+     * Selects the items to cancel. Items are cancelled in order while the queue is longer than the low-water mark;
+     * after that, only the items older than the target age are cancelled, until the oldest remaining item is younger
+     * than the target age
+     * @param candidates All the items in the queue that may be cancelled
+     * @param maxLength The number of items allowed to remain in the queue, or {@link Integer#MAX_VALUE}
+     * @param minInQueueSince Items that entered the queue before this time (epoch milliseconds) are too old, or
+     * {@link Long#MIN_VALUE}
+     * @param <T> The type of the items
+     * @return The items to cancel, in the order they should be cancelled
+     */
+    @Nonnull
+    static <T> List<T> selectVictims(@Nonnull List<Candidate<T>> candidates, int maxLength, long minInQueueSince) {
+        List<T> victims = new ArrayList<>();
+        List<Candidate<T>> byAge = new ArrayList<>(candidates);
+        byAge.sort(BY_AGE);
+        rank(byAge);
+        List<Candidate<T>> ordered = new ArrayList<>(candidates);
+        ordered.sort(ORDER);
+
+        int remaining = candidates.size();
+        int oldest = 0;  // position in byAge of the oldest item that was not cancelled
+        for (Candidate<T> candidate : ordered) {
+            while (oldest < byAge.size() && byAge.get(oldest).shed) {
+                oldest++;
+            }
+            boolean tooLong = remaining > maxLength;
+            boolean tooOld = oldest < byAge.size() && byAge.get(oldest).inQueueSince < minInQueueSince;
+            if (!tooLong && !tooOld) {
+                break;
+            }
+            if (tooLong || candidate.inQueueSince < minInQueueSince) {
+                candidate.shed = true;
+                victims.add(candidate.item);
+                remaining--;
+            }
+        }
+        return victims;
+    }
+
+    /**
+     * Ranks the items among the items with the same label and priority, and flags every item of a task but the
+     * oldest as a duplicate
+     * @param byAge The candidates, oldest first
+     */
+    private static <T> void rank(List<Candidate<T>> byAge) {
+        Map<String, Integer> ranks = new HashMap<>();
+        Set<String> tasks = new HashSet<>();
+        for (Candidate<T> candidate : byAge) {
+            candidate.labelRank = ranks.merge(candidate.priority + "\n" + candidate.label, 1, Integer::sum) - 1;
+            candidate.duplicate = !tasks.add(candidate.task);
+        }
+    }
+}
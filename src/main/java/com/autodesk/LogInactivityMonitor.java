@@ -0,0 +1,181 @@
+package com.autodesk;
+
+import com.autodesk.config.GlobalTimeoutConfig;
+import com.autodesk.config.TimeoutSettings;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.PeriodicWork;
+import hudson.model.Queue;
+import hudson.model.Run;
+import jenkins.model.CauseOfInterruption;
+import jenkins.model.Jenkins;
+import org.jenkinsci.Symbol;
+import org.jenkinsci.plugins.workflow.flow.FlowExecutionOwner;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.FlowEndNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Aborts builds that have not written to their log for longer than the log inactivity timeout. A single periodic
+ * sweep walks the executors and compares the last modification time of each running build's log with the timeout,
+ * so a build costs one file stat per sweep and no watcher thread or timer. Stalled builds are aborted through
+ * {@link AbortEscalation}, at most once per build.
+ *
+ * Pipelines are not asked for their log file, which may copy the whole log out of a non file based log storage. Their
+ * log file is looked up in the build directory directly, and the last new step of the flow (see
+ * {@link FlowActivityListener}) counts as output too, so pipelines with another log storage are still covered.
+ */
+@Extension
+@Symbol("logInactivityMonitor")
+public class LogInactivityMonitor extends PeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(LogInactivityMonitor.class.getName());
+
+    // externalizable ids of the stalled runs that are being aborted
+    private final Set<String> aborting = ConcurrentHashMap.newKeySet();
+    // time (epoch milliseconds) of the last new flow node of each running pipeline, by externalizable id
+    private final Map<String, Long> flowActivity = new ConcurrentHashMap<>();
+
+    static LogInactivityMonitor get() {
+        return PeriodicWork.all().get(LogInactivityMonitor.class);
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.SECONDS.toMillis(30);
+    }
+
+    @Override
+    protected void doRun() throws Exception {
+        check();
+    }
+
+    /**
+     * Checks every running build for log output
+     * @return The number of stalled builds the sweep started to abort
+     */
+    int check() {
+        TimeoutSettings settings = GlobalTimeoutConfig.settings();
+        long timeoutMillis = settings.getLogInactivityTimeoutMillis();
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (timeoutMillis <= 0 || jenkins == null) {
+            aborting.clear();
+            flowActivity.clear();
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        int stalled = 0;
+        Set<String> running = new HashSet<>();
+        LogInactivityInterruption cause = null;  // shared by all the builds of this sweep
+        for (Computer computer : jenkins.getComputers()) {
+            for (Executor executor : computer.getAllExecutors()) {
+                Queue.Executable executable = executor.getCurrentExecutable();
+                if (!(executable instanceof Run)) {
+                    continue;
+                }
+                Run<?, ?> run = (Run<?, ?>) executable;
+                String runId = run.getExternalizableId();
+                if (!run.isBuilding() || !running.add(runId)) {
+                    continue;
+                }
+                long lastOutput = getLastOutputMillis(run, runId);
+                if (now - lastOutput <= timeoutMillis || !aborting.add(runId)) {
+                    continue;
+                }
+                if (cause == null) {
+                    cause = new LogInactivityInterruption(settings.getLogInactivityTimeout());
+                }
+                stalled++;
+                LOGGER.info("No log output from run " + run.getUrl() + " for "
+                        + TimeUnit.MILLISECONDS.toSeconds(now - lastOutput) + "s, aborting it");
+                try {
+                    AbortEscalation.start(run, cause);
+                } catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, "Abort Build failed for run " + run.getUrl(), e);
+                }
+            }
+        }
+        // forget the runs that are no longer building
+        aborting.retainAll(running);
+        flowActivity.keySet().retainAll(running);
+        return stalled;
+    }
+
+    /**
+     * @param run A running build
+     * @param runId The externalizable id of the run
+     * @return The time (epoch milliseconds) of the last output of the run. A build that has not written anything yet
+     * is idle since it started
+     */
+    private long getLastOutputMillis(Run<?, ?> run, String runId) {
+        long lastOutput = run.getStartTimeInMillis();
+        if (run instanceof FlowExecutionOwner.Executable) {
+            // the log of the default log storage, 0 if the run uses another one
+            lastOutput = Math.max(lastOutput, new File(run.getRootDir(), "log").lastModified());
+            Long activity = flowActivity.get(runId);
+            if (activity != null) {
+                lastOutput = Math.max(lastOutput, activity);
+            }
+        } else {
+            lastOutput = Math.max(lastOutput, run.getLogFile().lastModified());
+        }
+        return lastOutput;
+    }
+
+    /**
+     * Records the time of the last new flow node of each pipeline, while the log inactivity timeout is set
+     */
+    @Extension
+    public static class FlowActivityListener implements GraphListener {
+
+        @Override
+        public void onNewHead(FlowNode node) {
+            if (GlobalTimeoutConfig.settings().getLogInactivityTimeoutMillis() <= 0) {
+                return;
+            }
+            try {
+                Queue.Executable executable = node.getExecution().getOwner().getExecutable();
+                if (executable instanceof Run) {
+                    String runId = ((Run<?, ?>) executable).getExternalizableId();
+                    LogInactivityMonitor monitor = LogInactivityMonitor.get();
+                    if (node instanceof FlowEndNode) {
+                        monitor.flowActivity.remove(runId);
+                    } else {
+                        monitor.flowActivity.put(runId, System.currentTimeMillis());
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to record the activity of flow node " + node.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * Cause of interruption for a build that stopped writing to its log
+     */
+    public static class LogInactivityInterruption extends CauseOfInterruption {
+
+        private final String logInactivityTimeout;  // the limit at the time of the abort
+
+        LogInactivityInterruption(String logInactivityTimeout) {
+            this.logInactivityTimeout = logInactivityTimeout;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return String.format("Job aborted as it wrote no log output for %s. Please contact the admins if you " +
+                    "wish to find out more.", logInactivityTimeout);
+        }
+    }
+}
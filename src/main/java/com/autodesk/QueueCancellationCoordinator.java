@@ -0,0 +1,288 @@
+package com.autodesk;
+
+import com.autodesk.config.GlobalTimeoutConfig;
+import com.autodesk.config.TimeoutSettings;
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import jenkins.model.CauseOfInterruption;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Makes sure every queue item gets exactly one cancellation attempt, no matter how many sweeps or listeners ask for
+ * it. The state of each item moves from {@link State#PENDING} to {@link State#IN_FLIGHT} with a compare-and-set, so a
+ * second request for the same item is a no-op. Failed attempts are retried with exponential backoff through the
+ * {@link DeadlineScheduler} instead of being resubmitted on every sweep, and after {@value #MAX_ATTEMPTS} failures the
+ * item is handed back to the sweep (see {@link QueueDeadlineIndex#rearm}). State is dropped once the item leaves the
+ * queue.
+ *
+ * Pending attempts are collected and only run once {@link #flush()} is called. They are then cancelled in batches of
+ * {@link GlobalTimeoutConfig#getCancellationBatchSize()} items, each batch under a single {@link Queue#withLock}, with
+ * a pause of {@link GlobalTimeoutConfig#getCancellationBatchInterval()} between batches so that mass cancellations do
+ * not compete with the queue maintenance. Whatever a cancellation needs, e.g. the run of a pipeline {@code node} block
+ * and its executors, is resolved before the lock is taken (see {@link QueueTaskCanceller#prepare}), so the lock is
+ * only held to cancel and interrupt.
+ */
+@Extension
+public class QueueCancellationCoordinator extends QueueListener {
+
+    private static final Logger LOGGER = Logger.getLogger(QueueCancellationCoordinator.class.getName());
+
+    static final int MAX_ATTEMPTS = 5;
+    static final long INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * The cancellation state of a queue item
+     */
+    public enum State {
+        PENDING,
+        IN_FLIGHT,
+        DONE,
+        FAILED
+    }
+
+    private final Map<Long, Attempt> attempts = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Attempt> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicLong lastLockHoldNanos = new AtomicLong();
+    private final AtomicLong maxLockHoldNanos = new AtomicLong();
+
+    public static QueueCancellationCoordinator get() {
+        return QueueListener.all().get(QueueCancellationCoordinator.class);
+    }
+
+    /**
+     * Cancellation of one queue item
+     */
+    private final class Attempt {
+        final long id;
+        final Queue.Task task;
+        final CauseOfInterruption cause;
+        final BiFunction<Queue.Item, CauseOfInterruption, BooleanSupplier> canceller;
+        final AtomicReference<State> state = new AtomicReference<>(State.PENDING);
+        final AtomicInteger failures = new AtomicInteger();
+        final long submittedNanos = System.nanoTime();
+
+        Attempt(Queue.Item item, CauseOfInterruption cause,
+                BiFunction<Queue.Item, CauseOfInterruption, BooleanSupplier> canceller) {
+            this.id = item.getId();
+            this.task = item.task;
+            this.cause = cause;
+            this.canceller = canceller;
+        }
+
+        /**
+         * Resolves whatever the cancellation needs, e.g. a run and its executors, before the queue lock is taken
+         * @return The action that cancels the item under the queue lock, or null if the attempt is over
+         */
+        BooleanSupplier prepare() {
+            // the item may have left the queue while the attempt was waiting for its batch
+            if (attempts.get(id) != this || state.get() != State.PENDING) {
+                return null;
+            }
+            // cancel this very item, not whichever item of the same task is queued now
+            Queue.Item item = Queue.getInstance().getItem(id);
+            if (item == null) {
+                state.compareAndSet(State.PENDING, State.DONE);
+                return null;
+            }
+            try {
+                return canceller.apply(item, cause);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Exception occurred while cancelling queue task " + task.getUrl(), e);
+                return () -> false;
+            }
+        }
+
+        /**
+         * Runs the prepared cancellation. Called under the queue lock, so it only cancels or interrupts
+         * @param action The action returned by {@link #prepare()}
+         * @return false if the attempt failed and has to be retried
+         */
+        boolean cancel(BooleanSupplier action) {
+            if (attempts.get(id) != this || !state.compareAndSet(State.PENDING, State.IN_FLIGHT)) {
+                return true;
+            }
+            if (Queue.getInstance().getItem(id) == null) {  // left the queue since the attempt was prepared
+                state.set(State.DONE);
+                return true;
+            }
+            boolean cancelled;
+            try {
+                cancelled = action.getAsBoolean();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Exception occurred while cancelling queue task " + task.getUrl(), e);
+                cancelled = false;
+            }
+            if (cancelled) {
+                state.set(State.DONE);
+                TimeoutMetrics.get().recordCancellation(System.nanoTime() - submittedNanos);
+                return true;
+            }
+            state.set(State.FAILED);
+            return false;
+        }
+
+        /**
+         * Retries a failed attempt with exponential backoff, after the queue lock was released
+         */
+        void retry() {
+            int failed = failures.incrementAndGet();
+            if (failed >= MAX_ATTEMPTS) {
+                TimeoutMetrics.get().recordAbandonedCancellation();
+                LOGGER.warning("Giving up cancelling queue task " + task.getUrl() + " after " + failed
+                        + " attempts, the next sweep checks it again");
+                // forget the attempt and hand the item back to the sweep, which decides again whether it has to go
+                attempts.remove(id, this);
+                QueueDeadlineIndex.get().rearm(id);
+                PeriodicWork.all().get(QueueTimeout.class).scheduleSweep(System.currentTimeMillis());
+                return;
+            }
+            long backoff = INITIAL_BACKOFF_MILLIS << (failed - 1);
+            DeadlineScheduler.get().schedule(System.currentTimeMillis() + backoff, () -> {
+                // the item may have left the queue in the meantime
+                if (attempts.get(id) == this && state.compareAndSet(State.FAILED, State.PENDING)) {
+                    ready.add(this);
+                    flush();
+                }
+            });
+        }
+    }
+
+    /**
+     * Requests the cancellation of a queue item. Only the first request for an item is acted upon. The cancellation
+     * is only run once {@link #flush()} is called
+     * @param item The queue item to cancel
+     * @param cause The cause of the cancellation
+     * @param canceller Prepares the cancellation of the item, which is looked up again from its id when the attempt
+     * runs, outside of the queue lock. The action it returns runs under the queue lock and returns false if the
+     * attempt failed and should be retried
+     * @return true if this request started a new cancellation
+     */
+    boolean submit(@Nonnull Queue.Item item, @Nonnull CauseOfInterruption cause,
+                   @Nonnull BiFunction<Queue.Item, CauseOfInterruption, BooleanSupplier> canceller) {
+        if (!QueueDeadlineIndex.get().contains(item.getId())) {  // already left the queue
+            return false;
+        }
+        Attempt attempt = new Attempt(item, cause, canceller);
+        if (attempts.putIfAbsent(attempt.id, attempt) != null) {
+            return false;
+        }
+        LOGGER.fine("Stopping Queue item: " + item.task.getName() + " for cause: " + cause.getShortDescription());
+        ready.add(attempt);
+        return true;
+    }
+
+    /**
+     * Starts cancelling the pending items in batches, unless a drain is already in progress
+     */
+    public void flush() {
+        if (!ready.isEmpty() && draining.compareAndSet(false, true)
+                && !TimeoutActionExecutor.get().offer(this::drainBatch)) {
+            draining.set(false);  // dropped, the attempts stay ready for the next flush
+        }
+    }
+
+    /**
+     * @param id The id of a queue item
+     * @return The cancellation state of the item, or null if no cancellation was requested
+     */
+    public State getState(long id) {
+        Attempt attempt = attempts.get(id);
+        return attempt == null ? null : attempt.state.get();
+    }
+
+    /**
+     * @return The number of queued items with a cancellation requested
+     */
+    public int getPendingCount() {
+        return attempts.size();
+    }
+
+    @Override
+    public void onLeft(Queue.LeftItem li) {
+        attempts.remove(li.getId());
+    }
+
+    /**
+     * @return How long the last cancellation batch held the queue lock, in nanoseconds
+     */
+    public long getLastLockHoldNanos() {
+        return lastLockHoldNanos.get();
+    }
+
+    /**
+     * @return The longest time a cancellation batch held the queue lock, in nanoseconds
+     */
+    public long getMaxLockHoldNanos() {
+        return maxLockHoldNanos.get();
+    }
+
+    /**
+     * Cancels one batch of pending items under a single queue lock and schedules the next batch after the pause
+     */
+    private void drainBatch() {
+        TimeoutSettings settings = GlobalTimeoutConfig.settings();
+        List<Attempt> batch = new ArrayList<>();
+        Attempt attempt;
+        while (batch.size() < settings.getCancellationBatchSize() && (attempt = ready.poll()) != null) {
+            batch.add(attempt);
+        }
+        if (!batch.isEmpty()) {
+            // runs and executors are looked up before the lock is taken, the lock is only held to cancel
+            Map<Attempt, BooleanSupplier> actions = new LinkedHashMap<>();
+            for (Attempt pending : batch) {
+                BooleanSupplier action = pending.prepare();
+                if (action != null) {
+                    actions.put(pending, action);
+                }
+            }
+            List<Attempt> failed = new ArrayList<>();
+            long start = System.nanoTime();
+            Queue.withLock(() -> {
+                for (Map.Entry<Attempt, BooleanSupplier> action : actions.entrySet()) {
+                    if (!action.getKey().cancel(action.getValue())) {
+                        failed.add(action.getKey());
+                    }
+                }
+            });
+            long held = System.nanoTime() - start;
+            for (Attempt retried : failed) {
+                retried.retry();
+            }
+            lastLockHoldNanos.set(held);
+            maxLockHoldNanos.accumulateAndGet(held, Math::max);
+            LOGGER.fine("Cancelled " + batch.size() + " queue items holding the queue lock for "
+                    + TimeUnit.NANOSECONDS.toMillis(held) + "ms");
+        }
+        if (ready.isEmpty()) {
+            draining.set(false);
+            // an item may have been added after the last poll but before the flag was cleared
+            flush();
+            return;
+        }
+        long pause = settings.getCancellationBatchIntervalMillis();
+        // the next batch goes through flush, so that it is retried by a later flush if the executor drops it
+        DeadlineScheduler.get().scheduleOnTicker(System.currentTimeMillis() + pause, () -> {
+            draining.set(false);
+            flush();
+        });
+    }
+}
@@ -0,0 +1,254 @@
+package com.autodesk;
+
+import hudson.Extension;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Ordered index of the items waiting in the queue, maintained incrementally from queue events. Every item of a given
+ * {@link Kind} shares the same timeout, so ordering the entries by the time they entered the queue is the same as
+ * ordering them by expiry. A sweep therefore only touches the items whose deadline has passed, in
+ * O(expired · log n), and a change of the configured timeouts never requires rebuilding the index.
+ *
+ * Items that passed their "no such node" timeout while an agent could serve them are kept aside, to be checked again
+ * once nodes or clouds change (see {@link #deferRecheck}), and items whose cancellation was given up are put back
+ * (see {@link #rearm}), so that no item drops out of the sweep while it is still queued.
+ */
+@Extension
+public class QueueDeadlineIndex extends QueueListener {
+
+    /**
+     * The timeouts an item can expire on
+     */
+    public enum Kind {
+        QUEUE_TIMEOUT,
+        NO_SUCH_NODE
+    }
+
+    private static final Comparator<Entry> BY_IN_QUEUE_SINCE =
+            Comparator.comparingLong((Entry entry) -> entry.inQueueSince).thenComparingLong(entry -> entry.id);
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Kind, NavigableSet<Entry>> pending = new EnumMap<>(Kind.class);
+    private final NavigableSet<Entry> byAge = new ConcurrentSkipListSet<>(BY_IN_QUEUE_SINCE);
+    private final Set<Long> rechecks = ConcurrentHashMap.newKeySet();
+    private volatile boolean seeded;
+
+    public QueueDeadlineIndex() {
+        for (Kind kind : Kind.values()) {
+            pending.put(kind, new ConcurrentSkipListSet<>(BY_IN_QUEUE_SINCE));
+        }
+    }
+
+    public static QueueDeadlineIndex get() {
+        return QueueListener.all().get(QueueDeadlineIndex.class);
+    }
+
+    /**
+     * A tracked queue item. Keeps the latest state of the item so that the sweep does not have to look it up in the
+     * queue.
+     */
+    private static final class Entry {
+        final long id;
+        final long inQueueSince;
+        volatile Queue.Item item;
+
+        Entry(Queue.Item item) {
+            this.id = item.getId();
+            this.inQueueSince = item.getInQueueSince();
+            this.item = item;
+        }
+    }
+
+    @Override
+    public void onEnterWaiting(Queue.WaitingItem wi) {
+        track(wi);
+    }
+
+    @Override
+    public void onEnterBlocked(Queue.BlockedItem bi) {
+        track(bi);
+    }
+
+    @Override
+    public void onEnterBuildable(Queue.BuildableItem bi) {
+        track(bi);
+    }
+
+    @Override
+    public void onLeft(Queue.LeftItem li) {
+        rechecks.remove(li.getId());
+        Entry entry = entries.remove(li.getId());
+        if (entry != null) {
+            byAge.remove(entry);
+            for (NavigableSet<Entry> set : pending.values()) {
+                set.remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Starts tracking a queue item, or refreshes the state of an item that is already tracked
+     * @param item The queue item
+     */
+    void track(@Nonnull Queue.Item item) {
+        Entry entry = entries.computeIfAbsent(item.getId(), id -> {
+            Entry created = new Entry(item);
+            byAge.add(created);
+            for (NavigableSet<Entry> set : pending.values()) {
+                set.add(created);
+            }
+            return created;
+        });
+        entry.item = item;
+    }
+
+    /**
+     * Tracks the items that were already in the queue before the index started listening. Only scans the queue the
+     * first time it is called.
+     * @param queue The Jenkins queue
+     */
+    void seed(@Nonnull Queue queue) {
+        if (seeded) {
+            return;
+        }
+        seeded = true;
+        // under the queue lock so that no item can leave between the snapshot and the insert
+        Queue.withLock(() -> {
+            for (Queue.Item item : queue.getItems()) {
+                track(item);
+            }
+        });
+    }
+
+    /**
+     * Removes and returns the items that entered the queue before the cutoff. Each item is returned at most once per
+     * kind.
+     * @param kind The timeout the items are checked against
+     * @param cutoff Items that entered the queue before this time (epoch milliseconds) have expired
+     * @return The expired items, oldest first
+     */
+    @Nonnull
+    List<Queue.Item> pollExpired(@Nonnull Kind kind, long cutoff) {
+        NavigableSet<Entry> set = pending.get(kind);
+        List<Queue.Item> expired = new ArrayList<>();
+        for (Entry entry : set) {
+            if (entry.inQueueSince >= cutoff) {
+                break;
+            }
+            if (set.remove(entry)) {
+                expired.add(entry.item);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Puts an item that was already returned by {@link #pollExpired} back, so that the next sweep sees it again, e.g.
+     * after its cancellation was given up
+     * @param id The id of the queue item
+     */
+    void rearm(long id) {
+        Entry entry = entries.get(id);
+        if (entry != null) {
+            for (NavigableSet<Entry> set : pending.values()) {
+                set.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Keeps an item that passed its "no such node" timeout while an agent could serve it, to be checked again once
+     * nodes or clouds change
+     * @param id The id of the queue item
+     */
+    void deferRecheck(long id) {
+        if (entries.containsKey(id)) {
+            rechecks.add(id);
+        }
+    }
+
+    /**
+     * @return true if items are waiting to be checked again for an agent
+     */
+    boolean hasRechecks() {
+        return !rechecks.isEmpty();
+    }
+
+    /**
+     * Removes and returns the items kept by {@link #deferRecheck}
+     * @return The latest state of the items that are still queued
+     */
+    @Nonnull
+    List<Queue.Item> pollRechecks() {
+        List<Queue.Item> items = new ArrayList<>();
+        for (Long id : rechecks) {
+            Entry entry = entries.get(id);
+            if (rechecks.remove(id) && entry != null) {
+                items.add(entry.item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * @param kind The timeout the items are checked against
+     * @return The time (epoch milliseconds) the oldest item not yet returned by {@link #pollExpired} for this kind
+     * entered the queue, or {@link Long#MAX_VALUE} if there is none
+     */
+    long oldestPending(@Nonnull Kind kind) {
+        for (Entry entry : pending.get(kind)) {
+            return entry.inQueueSince;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return The time (epoch milliseconds) the oldest tracked item entered the queue, or {@link Long#MAX_VALUE} if
+     * the queue is empty
+     */
+    long oldest() {
+        for (Entry entry : byAge) {
+            return entry.inQueueSince;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return The latest state of all the tracked items, oldest first
+     */
+    @Nonnull
+    List<Queue.Item> items() {
+        List<Queue.Item> items = new ArrayList<>(entries.size());
+        for (Entry entry : byAge) {
+            items.add(entry.item);
+        }
+        return items;
+    }
+
+    /**
+     * @param id The id of a queue item
+     * @return true if the item is still in the queue
+     */
+    boolean contains(long id) {
+        return entries.containsKey(id);
+    }
+
+    /**
+     * @return The number of queue items currently tracked
+     */
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,41 @@
+package com.autodesk;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.Queue;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Tells how important a queue item is when the queue is under pressure. Load shedding (see {@link LoadShedder})
+ * cancels the items with the lowest priority first. Items no extension has an opinion on have priority 0.
+ */
+public abstract class QueueItemPriority implements ExtensionPoint {
+
+    /**
+     * @param item A queue item
+     * @return The priority of the item, higher values are cancelled last, or null if this extension does not know the
+     * item
+     */
+    @CheckForNull
+    public abstract Integer getPriority(@Nonnull Queue.Item item);
+
+    public static ExtensionList<QueueItemPriority> all() {
+        return ExtensionList.lookup(QueueItemPriority.class);
+    }
+
+    /**
+     * @param item A queue item
+     * @return The priority given by the first extension that knows the item, or 0
+     */
+    static int of(@Nonnull Queue.Item item) {
+        for (QueueItemPriority priority : all()) {
+            Integer value = priority.getPriority(item);
+            if (value != null) {
+                return value;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,158 @@
+package com.autodesk;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.Executor;
+import hudson.model.Queue;
+import hudson.model.Result;
+import hudson.model.Run;
+import jenkins.model.CauseOfInterruption;
+import org.jenkinsci.plugins.workflow.support.steps.ExecutorStepExecution;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Strategy to cancel a queue item whose task is of a given type when it exceeds a queue timeout or is shed. The
+ * canceller with the most specific task type applies; the default one removes the item with
+ * {@link Queue#cancel(Queue.Item)}, so items of every type, e.g. matrix parents and configurations or third party
+ * tasks, leave the queue. Cancellers act on the given item only, never on other queued items of the same task, e.g.
+ * other builds of a parameterized or concurrent job.
+ */
+public abstract class QueueTaskCanceller implements ExtensionPoint {
+
+    private static final Logger LOGGER = Logger.getLogger(QueueTaskCanceller.class.getName());
+
+    // canceller resolved for each task class. Extensions do not change once Jenkins has started
+    private static final Map<Class<?>, QueueTaskCanceller> resolved = new ConcurrentHashMap<>();
+
+    private final Class<? extends Queue.Task> taskType;
+
+    /**
+     * @param taskType The type of the tasks this canceller handles, including subtypes
+     */
+    protected QueueTaskCanceller(@Nonnull Class<? extends Queue.Task> taskType) {
+        this.taskType = taskType;
+    }
+
+    @Nonnull
+    public Class<? extends Queue.Task> getTaskType() {
+        return taskType;
+    }
+
+    /**
+     * Cancels a queue item
+     * @param item The item to cancel
+     * @param cause The cause recorded on an interrupted run
+     * @return false if the item could not be cancelled yet and the attempt should be retried
+     */
+    public abstract boolean cancel(@Nonnull Queue.Item item, @Nonnull CauseOfInterruption cause);
+
+    /**
+     * Prepares the cancellation of a queue item. Called outside of the queue lock, so it may look up runs and
+     * executors; the returned action runs under {@link Queue#withLock} and should only cancel or interrupt. By
+     * default the action is {@link #cancel}
+     * @param item The item to cancel
+     * @param cause The cause recorded on an interrupted run
+     * @return The action, which returns false if the item could not be cancelled yet and the attempt should be retried
+     */
+    @Nonnull
+    public BooleanSupplier prepare(@Nonnull Queue.Item item, @Nonnull CauseOfInterruption cause) {
+        return () -> cancel(item, cause);
+    }
+
+    public static ExtensionList<QueueTaskCanceller> all() {
+        return ExtensionList.lookup(QueueTaskCanceller.class);
+    }
+
+    /**
+     * @param task A queued task
+     * @return The canceller with the most specific type for the task
+     */
+    @Nonnull
+    static QueueTaskCanceller of(@Nonnull Queue.Task task) {
+        return resolved.computeIfAbsent(task.getClass(), type -> select(all(), type));
+    }
+
+    /**
+     * @param cancellers The candidate cancellers, in order of preference
+     * @param type The class of a task
+     * @return The first canceller whose task type is the most specific supertype of the class, or the default
+     * canceller if none applies
+     */
+    @Nonnull
+    static QueueTaskCanceller select(@Nonnull List<QueueTaskCanceller> cancellers, @Nonnull Class<?> type) {
+        QueueTaskCanceller selected = null;
+        for (QueueTaskCanceller canceller : cancellers) {
+            if (canceller.taskType.isAssignableFrom(type)
+                    && (selected == null || selected.taskType != canceller.taskType
+                    && selected.taskType.isAssignableFrom(canceller.taskType))) {
+                selected = canceller;
+            }
+        }
+        return selected == null ? new DefaultCanceller() : selected;
+    }
+
+    /**
+     * Removes the item of any task from the queue
+     */
+    @Extension(ordinal = -1000)
+    public static class DefaultCanceller extends QueueTaskCanceller {
+
+        public DefaultCanceller() {
+            super(Queue.Task.class);
+        }
+
+        @Override
+        public boolean cancel(@Nonnull Queue.Item item, @Nonnull CauseOfInterruption cause) {
+            return Queue.getInstance().cancel(item);
+        }
+    }
+
+    /**
+     * Aborts the run a pipeline {@code node} block is waiting for an agent for
+     */
+    @Extension
+    public static class PlaceholderTaskCanceller extends QueueTaskCanceller {
+
+        public PlaceholderTaskCanceller() {
+            super(ExecutorStepExecution.PlaceholderTask.class);
+        }
+
+        @Override
+        public boolean cancel(@Nonnull Queue.Item item, @Nonnull CauseOfInterruption cause) {
+            return prepare(item, cause).getAsBoolean();
+        }
+
+        /**
+         * Looks up the run, which may load it from disk, and its executors, a scan over all the computers, before the
+         * queue lock is taken. Only the interrupts run under the lock
+         */
+        @Nonnull
+        @Override
+        public BooleanSupplier prepare(@Nonnull Queue.Item item, @Nonnull CauseOfInterruption cause) {
+            Run<?, ?> run = ((ExecutorStepExecution.PlaceholderTask) item.task).run();
+            if (run == null) {
+                LOGGER.warning("Run of task is null: " + item.task.getUrl());
+                return () -> false;
+            }
+            // interrupt every executor of the run together, e.g. all the branches of a parallel pipeline
+            List<Executor> executors = AbortEscalation.executorsOf(run);
+            if (executors.isEmpty()) {
+                LOGGER.warning("Executor for run is null: " + run.getUrl());
+                return () -> false;
+            }
+            return () -> {
+                for (Executor executor : executors) {
+                    executor.interrupt(Result.ABORTED, cause);
+                }
+                return true;
+            };
+        }
+    }
+}
@@ -1,29 +1,24 @@
 package com.autodesk;
 
 import com.autodesk.config.GlobalTimeoutConfig;
+import com.autodesk.config.TimeoutDuration;
+import com.autodesk.config.TimeoutSettings;
 import hudson.Extension;
-import hudson.model.Computer;
-import hudson.model.Executor;
-import hudson.model.FreeStyleProject;
 import hudson.model.Label;
 import hudson.model.PeriodicWork;
 import hudson.model.Queue;
-import hudson.model.Result;
-import hudson.model.Run;
-import hudson.model.labels.LabelAtom;
 import hudson.model.queue.QueueListener;
-import hudson.slaves.Cloud;
 import jenkins.model.CauseOfInterruption;
 import jenkins.model.Jenkins;
-import jenkins.util.Timer;
 import org.jenkinsci.Symbol;
-import static hudson.model.Computer.threadPoolForRemoting;
 
-import org.jenkinsci.plugins.workflow.support.steps.ExecutorStepExecution;
-
-import java.util.Set;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.logging.Level;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Logger;
 
 @Extension
@@ -33,15 +28,25 @@ public class QueueTimeout extends PeriodicWork {
     private final Logger LOGGER = Logger.getLogger(this.getClass().getName());
     private final static Jenkins jenkins = Jenkins.get();
     private final Queue queue = jenkins.getQueue();
+    private final Object sweepLock = new Object();
+    private DeadlineScheduler.Deadline nextSweep;  // guarded by sweepLock
+    private volatile long lastSweepMillis;
+    private volatile long checkedAgentGeneration;  // AgentLabelIndex generation the deferred items were checked at
 
     @Override
     public long getRecurrencePeriod() {
-        return TimeUnit.MINUTES.toMillis(1);  // run every 1 minute
+        return TimeUnit.MINUTES.toMillis(5);  // safety net only, sweeps are scheduled at the next queue deadline
+    }
+
+    @Override
+    public long getInitialDelay() {
+        // seed the index with the items restored from before a restart
+        return GlobalTimeoutConfig.settings().getSweepMinIntervalMillis();
     }
 
     /**
      * Method is executed periodically based on {@link QueueTimeout#getRecurrencePeriod()} return value to check if the
-     * queue has any expired items
+     * queue has any expired items. Sweeps in between are scheduled by {@link #scheduleSweep(long)}
      * @throws Exception
      */
     @Override
@@ -51,92 +56,239 @@ public class QueueTimeout extends PeriodicWork {
     }
 
     /**
-     * Performs a check on whether there are any queue items that have timed out
+     * Performs a check on whether there are any queue items that have timed out. Only the items whose deadline has
+     * passed are visited (see {@link QueueDeadlineIndex})
      */
     public void checkForTimeout() {
-        Queue.Item[] queueItems = queue.getItems();
-        LOGGER.info("There are " + queueItems.length + " items in the queue");
-        Integer queueTimeout = GlobalTimeoutConfig.get().getQueueTimeout();
-        LOGGER.info("queueTimeout: " + queueTimeout);  // FIXME - remove after debugging
-        Integer noSuchNodeQueueTimeout = GlobalTimeoutConfig.get().getNoSuchNodeQueueTimeout();
-
-        for (Queue.Item queueItem : queueItems) {
-            // check if queue timeout has exceeded
-            LOGGER.info("Checking queueItem: " + queueItem.getId());  // FIXME - remove after debugging
-            if (queueTimeout != null) {
-                long timeElapsedMillis = System.currentTimeMillis() - queueItem.getInQueueSince();
-                LOGGER.info("timeElapsed: " + timeElapsedMillis); // FIXME - remove after debugging
-                if (timeElapsedMillis > TimeUnit.MINUTES.toMillis(queueTimeout)) {
-                    LOGGER.info("Queue time exceeded timeout!");
-                    submitStopQueueItemThread(queueItem, new QueueTimeoutInterruption());
+        lastSweepMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+        int examined = 0;
+        QueueDeadlineIndex index = QueueDeadlineIndex.get();
+        index.seed(queue);
+        TimeoutSettings settings = GlobalTimeoutConfig.settings();
+        long queueTimeout = settings.getQueueTimeoutMillis();
+        long noSuchNodeQueueTimeout = settings.getNoSuchNodeQueueTimeoutMillis();
+        long now = System.currentTimeMillis();
+
+        // check if queue timeout has exceeded
+        if (queueTimeout > 0) {
+            long cutoff = now - queueTimeout;
+            QueueTimeoutInterruption cause = null;  // shared by all the items of this sweep
+            for (Queue.Item queueItem : index.pollExpired(QueueDeadlineIndex.Kind.QUEUE_TIMEOUT, cutoff)) {
+                examined++;
+                TimeoutMetrics.get().recordExpiration(QueueDeadlineIndex.Kind.QUEUE_TIMEOUT);
+                if (cause == null) {
+                    cause = new QueueTimeoutInterruption();
                 }
+                submitStopQueueItemThread(queueItem, cause);
+            }
+        }
+        // items past the 'no such node' timeout are checked for a matching agent, and checked again whenever nodes or
+        // clouds change for as long as an agent exists
+        if (noSuchNodeQueueTimeout > 0) {
+            long cutoff = now - noSuchNodeQueueTimeout;
+            List<Queue.Item> expired = index.pollExpired(QueueDeadlineIndex.Kind.NO_SUCH_NODE, cutoff);
+            long agentGeneration = AgentLabelIndex.get().getGeneration();
+            if (agentGeneration != checkedAgentGeneration) {
+                checkedAgentGeneration = agentGeneration;
+                expired.addAll(index.pollRechecks());
             }
-            boolean agentExists = checkIfAgentExists(queueItem);
-            if (!agentExists && noSuchNodeQueueTimeout != null && noSuchNodeQueueTimeout > 0) {
-                // Checking elapsed time
-                long timeElapsedMillis = System.currentTimeMillis() - queueItem.getInQueueSince();
-                LOGGER.info("timeElapsedMillis: " + timeElapsedMillis);
-                if (timeElapsedMillis > TimeUnit.MINUTES.toMillis(noSuchNodeQueueTimeout)) {
-                    LOGGER.info("elapsed time is greater than noSuchNodeQueueTimeout");
+            for (Queue.Item queueItem : expired) {
+                examined++;
+                boolean agentExists = checkIfAgentExists(queueItem);
+                if (!agentExists) {
+                    TimeoutMetrics.get().recordExpiration(QueueDeadlineIndex.Kind.NO_SUCH_NODE);
                     Label assignedLabel = queueItem.getAssignedLabel();
                     String labelExpression = assignedLabel.getExpression();
                     submitStopQueueItemThread(queueItem, new InvalidNodeInterruption(labelExpression));
+                } else {
+                    index.deferRecheck(queueItem.getId());
                 }
             }
         }
+        if (settings.isLoadSheddingEnabled()) {
+            shedLoad(index, settings, now);
+        }
+        // cancel everything that expired in this sweep in batches
+        QueueCancellationCoordinator.get().flush();
+        long elapsed = System.nanoTime() - start;
+        TimeoutMetrics.get().recordSweep(elapsed, examined);
+        LOGGER.fine("Queue sweep examined " + examined + " of " + index.size() + " items in "
+                + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms");
+
+        long due = Math.min(dueMillis(index.oldestPending(QueueDeadlineIndex.Kind.QUEUE_TIMEOUT), queueTimeout),
+                dueMillis(index.oldestPending(QueueDeadlineIndex.Kind.NO_SUCH_NODE), noSuchNodeQueueTimeout));
+        if (due != Long.MAX_VALUE) {
+            scheduleSweep(due);
+        }
     }
 
     /**
-     * Submits a thread to stop the queued item
-     * @param queueItem The queue item to stop
+     * Cancels queue items while the queue is past one of its load shedding high-water marks, until it is back under
+     * the low-water marks (see {@link LoadShedder}). Items already being cancelled, by this sweep or an earlier one,
+     * are not counted
+     * @param index The index of the queued items
+     * @param settings The current settings
+     * @param now The time of the sweep (epoch milliseconds)
+     * @return The number of items cancelled
      */
-    void submitStopQueueItemThread(Queue.Item queueItem, CauseOfInterruption cause) {
-
+    int shedLoad(QueueDeadlineIndex index, TimeoutSettings settings, long now) {
+        QueueCancellationCoordinator coordinator = QueueCancellationCoordinator.get();
+        int highWatermark = settings.getSheddingHighWatermark();
+        long maxAgeMillis = settings.getSheddingMaxAgeMillis();
+        long oldest = index.oldest();
+        if (!(highWatermark > 0 && index.size() - coordinator.getPendingCount() > highWatermark)
+                && !(maxAgeMillis > 0 && oldest != Long.MAX_VALUE && now - oldest > maxAgeMillis)) {
+            return 0;
+        }
 
-        LOGGER.info("Stopping Queue item: " + queueItem.task.getName() + " for cause: " + cause.getShortDescription());
-        threadPoolForRemoting.submit(() -> {
-            Thread.currentThread().setName("Cancel queue thread: " + queueItem.getDisplayName());
-//            queue.cancel(queueItem);  // TODO - don't simply do queue.cancel. Instead interrupt the task
-            Queue.Task task = queueItem.task;
-            stopQueueTask(task, cause);
-        });
+        List<LoadShedder.Candidate<Queue.Item>> candidates = new ArrayList<>();
+        oldest = Long.MAX_VALUE;
+        for (Queue.Item item : index.items()) {
+            if (coordinator.getState(item.getId()) == null) {
+                Label label = item.getAssignedLabel();
+                candidates.add(new LoadShedder.Candidate<>(item, QueueItemPriority.of(item),
+                        label == null ? "" : label.getExpression(), item.task.getUrl(), item.getInQueueSince()));
+                oldest = Math.min(oldest, item.getInQueueSince());
+            }
+        }
+        int length = candidates.size();
+        boolean tooLong = highWatermark > 0 && length > highWatermark;
+        boolean tooOld = maxAgeMillis > 0 && oldest != Long.MAX_VALUE && now - oldest > maxAgeMillis;
+        if (!tooLong && !tooOld) {
+            return 0;
+        }
+        int maxLength = highWatermark > 0 ? settings.getSheddingLowWatermark() : Integer.MAX_VALUE;
+        long minInQueueSince = maxAgeMillis > 0 ? now - settings.getSheddingTargetAgeMillis() : Long.MIN_VALUE;
+        List<Queue.Item> victims = LoadShedder.selectVictims(candidates, maxLength, minInQueueSince);
+        LoadSheddingInterruption cause = new LoadSheddingInterruption(length,
+                oldest == Long.MAX_VALUE ? 0 : now - oldest);
+        for (Queue.Item victim : victims) {
+            submitStopQueueItemThread(victim, cause);
+        }
+        TimeoutMetrics.get().recordShed(victims.size());
+        LOGGER.warning("Queue of " + length + " items is over its load shedding limits, cancelling "
+                + victims.size() + " items");
+        return victims.size();
     }
 
     /**
-     * Stops or interrupts the queue task
-     * @param task Queue task to be stopped
-     * @param cause Cause of stoppage to be flagged in aborted run ({@link QueueTimeoutInterruption} or {@link InvalidNodeInterruption}
+     * @param inQueueSince The time (epoch milliseconds) an item entered the queue, or {@link Long#MAX_VALUE}
+     * @param timeoutMillis A queue timeout in milliseconds
+     * @return The first time (epoch milliseconds) a sweep finds the item expired, or {@link Long#MAX_VALUE} if it
+     * never expires
      */
-    void stopQueueTask(Queue.Task task, CauseOfInterruption cause) {
+    private static long dueMillis(long inQueueSince, long timeoutMillis) {
+        if (inQueueSince == Long.MAX_VALUE || timeoutMillis <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return inQueueSince + timeoutMillis + 1;
+    }
 
-        if (task instanceof ExecutorStepExecution.PlaceholderTask) {  // pipeline task
-            // Queue.Task ownerTask = task.getOwnerTask();
-            Run<?, ?> run = ((ExecutorStepExecution.PlaceholderTask) task).run();
-            if (run == null) {
-                LOGGER.warning("Run of task is null: " + task.getUrl());
-                return;
+    /**
+     * Makes sure a sweep runs at the given time, bounded by the configured minimum and maximum sweep intervals. An
+     * earlier sweep that is already scheduled is kept
+     * @param dueMillis The time (epoch milliseconds) at which an item is due
+     */
+    void scheduleSweep(long dueMillis) {
+        TimeoutSettings settings = GlobalTimeoutConfig.settings();
+        long minInterval = settings.getSweepMinIntervalMillis();
+        long maxInterval = settings.getSweepMaxIntervalMillis();
+        long at = Math.min(Math.max(dueMillis, lastSweepMillis + minInterval),
+                System.currentTimeMillis() + maxInterval);
+        DeadlineScheduler scheduler = DeadlineScheduler.get();
+        synchronized (sweepLock) {
+            if (nextSweep != null && scheduler.isPending(nextSweep)) {
+                if (nextSweep.getDeadlineMillis() <= at) {
+                    return;
+                }
+                scheduler.cancel(nextSweep);
             }
-            Executor executor = run.getExecutor();
-            if (executor == null) {
-                LOGGER.warning("Executor for run is null: " + run.getUrl());
-                return;
+            nextSweep = scheduler.schedule(at, this::checkForTimeout);
+        }
+    }
+
+    /**
+     * @return The time (epoch milliseconds) of the next scheduled sweep, or 0 if the sweep is idle
+     */
+    long getNextSweepMillis() {
+        synchronized (sweepLock) {
+            if (nextSweep == null || !DeadlineScheduler.get().isPending(nextSweep)) {
+                return 0;
             }
-            executor.interrupt(Result.ABORTED, cause);
-        } else if (task instanceof FreeStyleProject) {  // freestyle task
-            // TODO - implement a way to notify freestyleproject some day
-            queue.cancel(task);
+            return nextSweep.getDeadlineMillis();
         }
     }
 
+    /**
+     * Requests the queued item to be stopped. Repeated requests for the same item are ignored by the
+     * {@link QueueCancellationCoordinator}. The item is stopped once the coordinator is flushed
+     * @param queueItem The queue item to stop
+     */
+    void submitStopQueueItemThread(Queue.Item queueItem, CauseOfInterruption cause) {
+
+        // only a new cancellation is marked, so that items that already left the queue leave no mark behind
+        if (QueueCancellationCoordinator.get().submit(queueItem, cause, this::prepareStopQueueTask)) {
+            QueueWaitMetrics.get().markPolicyCancellation(queueItem.getId());
+        }
+    }
+
+    /**
+     * Stops or interrupts the task of the queue item with the {@link QueueTaskCanceller} for its type
+     * @param queueItem Queue item to be stopped
+     * @param cause Cause of stoppage to be flagged in aborted run ({@link QueueTimeoutInterruption} or {@link InvalidNodeInterruption}
+     * @return false if the item could not be stopped yet and the attempt should be retried
+     */
+    boolean stopQueueTask(Queue.Item queueItem, CauseOfInterruption cause) {
+
+        return QueueTaskCanceller.of(queueItem.task).cancel(queueItem, cause);
+    }
+
+    /**
+     * Prepares stopping the task of the queue item outside of the queue lock (see {@link QueueTaskCanceller#prepare})
+     * @param queueItem Queue item to be stopped
+     * @param cause Cause of stoppage to be flagged in aborted run
+     * @return The action that stops the item under the queue lock
+     */
+    BooleanSupplier prepareStopQueueTask(Queue.Item queueItem, CauseOfInterruption cause) {
+
+        return QueueTaskCanceller.of(queueItem.task).prepare(queueItem, cause);
+    }
+
     /**
      * Cause of interruption for a Queue timeout event (when a Queue Item remains in queue for too long)
      */
     public static class QueueTimeoutInterruption extends CauseOfInterruption {
 
+        private final String queueTimeout;  // the limit at the time of the cancellation
+
+        public QueueTimeoutInterruption() {
+            this.queueTimeout = GlobalTimeoutConfig.settings().getQueueTimeout();
+        }
+
         @Override
         public String getShortDescription() {
-            Integer queueTimeout = GlobalTimeoutConfig.get().getQueueTimeout();
-            return String.format("Queue task cancelled due to exceeding queue time limit of %s minutes", queueTimeout);
+            return String.format("Queue task cancelled due to exceeding queue time limit of %s", queueTimeout);
+        }
+    }
+
+    /**
+     * Cause of interruption for a queue item cancelled to relieve a queue that passed its load shedding limits
+     */
+    public static class LoadSheddingInterruption extends CauseOfInterruption {
+
+        private final int queueLength;
+        private final long oldestAgeMillis;
+
+        LoadSheddingInterruption(int queueLength, long oldestAgeMillis) {
+            this.queueLength = queueLength;
+            this.oldestAgeMillis = oldestAgeMillis;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return String.format("Queue task cancelled to relieve the queue, which held %d items with the oldest " +
+                    "waiting for %s", queueLength, TimeoutDuration.format(Duration.ofMillis(oldestAgeMillis)));
         }
     }
 
@@ -146,20 +298,23 @@ public class QueueTimeout extends PeriodicWork {
     public static class InvalidNodeInterruption extends CauseOfInterruption {
 
         String label;
+        private final String noSuchNodeQueueTimeout;  // the limit at the time of the cancellation
+
         InvalidNodeInterruption(String label) {
             this.label = label;
+            this.noSuchNodeQueueTimeout = GlobalTimeoutConfig.settings().getNoSuchNodeQueueTimeout();
         }
 
         @Override
         public String getShortDescription() {
-            Integer noSuchNodeQueueTimeout = GlobalTimeoutConfig.get().getNoSuchNodeQueueTimeout();
             return String.format("Queue task cancelled after %s as there are no agents associated with the label " +
                     "used: %s", noSuchNodeQueueTimeout, label);
         }
     }
 
     /**
-     * Checks if there will be a valid agent (might be offline) for a queue item
+     * Checks if there will be a valid agent (might be offline) for a queue item. Answered from the
+     * {@link AgentLabelIndex}, so the cost does not grow with the number of agents
      * @param queueItem The queue item to check against
      * @return true if there is a valid agent (both online or offline) associated with this label
      */
@@ -169,32 +324,66 @@ public class QueueTimeout extends PeriodicWork {
         if (assignedLabel == null) {  // no label set. All agents are valid agents
             return true;
         }
-        // Checking for dynamic cloud agents
-        Set<Cloud> clouds = assignedLabel.getClouds();
-        if (clouds.size() > 0) {
-            return true;
-        }
-        // Checking for static agents
-        Computer[] computers = jenkins.getComputers();
-        for (Computer computer : computers) {
-            Set<LabelAtom> assignedLabels = computer.getNode().getAssignedLabels();
-            for (LabelAtom labelAtom : assignedLabels) {
-                if (labelAtom.getExpression().equals(assignedLabel.getExpression())) {
-                    return true;
-                }
+        return AgentLabelIndex.get().hasAgent(assignedLabel);
+    }
+
+    /**
+     * A {@link QueueListener} that wakes the sweep up for new queue items, since no sweep is scheduled while the
+     * queue is empty
+     */
+    @Extension
+    public static class SweepListener extends QueueListener {
+
+        @Override
+        public void onEnterWaiting(Queue.WaitingItem wi) {
+
+            TimeoutSettings settings = GlobalTimeoutConfig.settings();
+            long due = Math.min(dueMillis(wi.getInQueueSince(), settings.getQueueTimeoutMillis()),
+                    dueMillis(wi.getInQueueSince(), settings.getNoSuchNodeQueueTimeoutMillis()));
+            if (due != Long.MAX_VALUE) {
+                PeriodicWork.all().get(QueueTimeout.class).scheduleSweep(due);
             }
         }
-        return false;
     }
 
-    // TODO - verify if this is still necessary. may create a lot of threads. might be better to just use the periodicwork
+    /**
+     * Cancels a queue item that is still waiting for an agent that does not exist once its "No such node" timeout
+     * has passed. The item is looked up again from its id
+     * @param id The id of the queue item
+     */
+    private static void expire(long id) {
+        if (!QueueDeadlineIndex.get().contains(id)) {
+            return;
+        }
+        Queue.Item item = Queue.getInstance().getItem(id);
+        if (item == null) {
+            return;
+        }
+        if (QueueTimeout.checkIfAgentExists(item)) {
+            QueueDeadlineIndex.get().deferRecheck(id);
+            return;
+        }
+        TimeoutMetrics.get().recordExpiration(QueueDeadlineIndex.Kind.NO_SUCH_NODE);
+        String labelExpression = item.getAssignedLabel().getExpression();
+        PeriodicWork.all().get(QueueTimeout.class)
+                .submitStopQueueItemThread(item, new InvalidNodeInterruption(labelExpression));
+        QueueCancellationCoordinator.get().flush();
+    }
+
     /**
      * A {@link QueueListener} that listens for an Invalid Node event (Queue item with a label without associated agents)
+     * and schedules one deadline per such item on the shared {@link DeadlineScheduler}, which holds only the queue id
+     * and starts no thread. The deadline cancels the item right at its "No such node" timeout, while the sweep may
+     * be held back by {@link GlobalTimeoutConfig#getSweepMinInterval()}. A deadline is cancelled when its item
+     * leaves the queue before it fires
      */
     @Extension
     public static class InvalidLabelListener extends QueueListener {
 
-        private static Logger LOGGER = Logger.getLogger(QueueTimeout.class.getName());
+        // deadlines of the items with an invalid label keyed by queue id. Fired deadlines stay until the item leaves
+        // the queue, as the item may still be waiting for a recheck
+        private final Map<Long, DeadlineScheduler.Deadline> deadlines = new ConcurrentHashMap<>();
+
         /**
          * Method is automatically executed on every new queue item. If a queue item has a label that is invalid, it
          * will be cancelled once it exceeds the "noSuchNodeQueueTimeout" setting (if set).
@@ -203,25 +392,35 @@ public class QueueTimeout extends PeriodicWork {
         @Override
         public void onEnterWaiting(Queue.WaitingItem wi) {
 
-            Integer noSuchNodeQueueTimeout = GlobalTimeoutConfig.get().getNoSuchNodeQueueTimeout();
-            if (noSuchNodeQueueTimeout != null) {
+            TimeoutSettings settings = GlobalTimeoutConfig.settings();
+            if (settings.getNoSuchNodeQueueTimeout() != null) {
                 if (!QueueTimeout.checkIfAgentExists(wi)) {
-                    Timer.get().schedule(() -> {
-                        String originalThreadName = Thread.currentThread().getName();
-                        Thread.currentThread().setName("global-build-timeout plugin: invalid queue task - "
-                                + wi.task.getUrl());
-                        try {
-                            Queue queue = Jenkins.get().getQueue();
-                            queue.cancel(wi);
-                        } catch (Exception e) {
-                            LOGGER.log(Level.INFO, "Exception occurred while cancelling queue task "
-                                    + wi.task.getUrl(), e);
-                        } finally {
-                            Thread.currentThread().setName(originalThreadName);
-                        }
-                    }, noSuchNodeQueueTimeout, TimeUnit.MINUTES);
+                    long id = wi.getId();
+                    long deadlineMillis = wi.getInQueueSince() + settings.getNoSuchNodeQueueTimeoutMillis();
+                    // only the queue id is captured, so the deadline does not keep the item and its actions in
+                    // memory after it has left the queue
+                    DeadlineScheduler.Deadline previous =
+                            deadlines.put(id, DeadlineScheduler.get().schedule(deadlineMillis, () -> expire(id)));
+                    if (previous != null) {
+                        DeadlineScheduler.get().cancel(previous);
+                    }
                 }
             }
         }
+
+        @Override
+        public void onLeft(Queue.LeftItem li) {
+            DeadlineScheduler.Deadline deadline = deadlines.remove(li.getId());
+            if (deadline != null) {
+                DeadlineScheduler.get().cancel(deadline);
+            }
+        }
+
+        /**
+         * @return The number of queue items with an invalid label that hold a deadline
+         */
+        int getPendingDeadlineCount() {
+            return deadlines.size();
+        }
     }
 }
@@ -0,0 +1,182 @@
+package com.autodesk;
+
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import net.sf.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Histograms of the time items waited in the queue, per label, per job type and per reason the item left the queue,
+ * recorded from {@link QueueListener#onLeft}. Each histogram has a fixed size (see {@link LatencyHistogram}) and the
+ * number of labels and job types tracked is bounded, further ones are counted under {@value #OTHER}. Exposed by
+ * {@link TimeoutMetricsAction} as JSON and in the Prometheus text format.
+ */
+@Extension
+public class QueueWaitMetrics extends QueueListener {
+
+    static final int MAX_KEYS = 200;
+    static final String OTHER = "other";
+    static final String NO_LABEL = "none";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    /**
+     * Why an item left the queue
+     */
+    public enum LeaveReason {
+        STARTED,
+        CANCELLED_BY_POLICY,
+        CANCELLED_BY_USER
+    }
+
+    private final Map<String, LatencyHistogram> byLabel = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> byJobType = new ConcurrentHashMap<>();
+    private final Map<LeaveReason, LatencyHistogram> byReason = new EnumMap<>(LeaveReason.class);
+    // ids of the items the plugin asked to cancel, until they leave the queue
+    private final Set<Long> policyCancellations = ConcurrentHashMap.newKeySet();
+
+    public QueueWaitMetrics() {
+        for (LeaveReason reason : LeaveReason.values()) {
+            byReason.put(reason, new LatencyHistogram());
+        }
+    }
+
+    public static QueueWaitMetrics get() {
+        return QueueListener.all().get(QueueWaitMetrics.class);
+    }
+
+    /**
+     * Marks an item the plugin is about to cancel, so that its wait is recorded as
+     * {@link LeaveReason#CANCELLED_BY_POLICY}
+     * @param id The id of the queue item
+     */
+    void markPolicyCancellation(long id) {
+        policyCancellations.add(id);
+    }
+
+    @Override
+    public void onLeft(Queue.LeftItem li) {
+        boolean byPolicy = policyCancellations.remove(li.getId());
+        LeaveReason reason = !li.isCancelled() ? LeaveReason.STARTED
+                : byPolicy ? LeaveReason.CANCELLED_BY_POLICY : LeaveReason.CANCELLED_BY_USER;
+        Label label = li.getAssignedLabel();
+        record(label == null ? NO_LABEL : label.getExpression(), li.task.getOwnerTask().getClass().getSimpleName(),
+                reason, System.currentTimeMillis() - li.getInQueueSince());
+    }
+
+    /**
+     * Records the wait of an item that left the queue
+     * @param label The label expression of the item
+     * @param jobType The simple class name of the job of the item
+     * @param reason Why the item left the queue
+     * @param waitMillis The time the item spent in the queue
+     */
+    void record(@Nonnull String label, @Nonnull String jobType, @Nonnull LeaveReason reason, long waitMillis) {
+        histogram(byLabel, label).record(waitMillis);
+        histogram(byJobType, jobType).record(waitMillis);
+        byReason.get(reason).record(waitMillis);
+    }
+
+    private static LatencyHistogram histogram(Map<String, LatencyHistogram> histograms, String key) {
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            // the bound may be exceeded by a few concurrent insertions, which is harmless
+            String bounded = histograms.size() < MAX_KEYS ? key : OTHER;
+            histogram = histograms.computeIfAbsent(bounded, k -> new LatencyHistogram());
+        }
+        return histogram;
+    }
+
+    /**
+     * @return The number of labels with a histogram, including {@value #OTHER}
+     */
+    int getLabelCount() {
+        return byLabel.size();
+    }
+
+    /**
+     * @return The count, mean, maximum and quantiles in milliseconds of each histogram, by dimension
+     */
+    @Nonnull
+    JSONObject toJSON() {
+        JSONObject reasons = new JSONObject();
+        for (Map.Entry<LeaveReason, LatencyHistogram> entry : byReason.entrySet()) {
+            reasons.put(entry.getKey().name(), toJSON(entry.getValue()));
+        }
+        JSONObject json = new JSONObject();
+        json.put("label", toJSON(byLabel));
+        json.put("jobType", toJSON(byJobType));
+        json.put("reason", reasons);
+        return json;
+    }
+
+    private static JSONObject toJSON(Map<String, LatencyHistogram> histograms) {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            json.put(entry.getKey(), toJSON(entry.getValue()));
+        }
+        return json;
+    }
+
+    private static JSONObject toJSON(LatencyHistogram histogram) {
+        JSONObject json = new JSONObject();
+        long count = histogram.getCount();
+        json.put("count", count);
+        json.put("meanMillis", count == 0 ? 0 : histogram.getSumMillis() / count);
+        json.put("maxMillis", histogram.getMaxMillis());
+        json.put("p50Millis", histogram.quantile(0.5));
+        json.put("p90Millis", histogram.quantile(0.9));
+        json.put("p99Millis", histogram.quantile(0.99));
+        return json;
+    }
+
+    /**
+     * Writes the histograms as Prometheus summaries, in seconds. Each dimension is a family of its own, so that
+     * summing a family over its label never counts an item more than once
+     * @param out The text to append to
+     */
+    void writePrometheus(@Nonnull StringBuilder out) {
+        writeFamily(out, "label", "the label they were assigned", byLabel, key -> key);
+        writeFamily(out, "job_type", "the type of their job", byJobType, key -> key);
+        writeFamily(out, "reason", "the reason they left it", byReason, key -> key.name().toLowerCase());
+    }
+
+    private static <K> void writeFamily(StringBuilder out, String dimension, String help,
+                                        Map<K, LatencyHistogram> histograms, Function<K, String> key) {
+        String name = "global_build_timeout_queue_wait_by_" + dimension + "_seconds";
+        out.append("# HELP ").append(name).append(" Time items waited in the Jenkins queue, by ").append(help)
+                .append('\n');
+        out.append("# TYPE ").append(name).append(" summary\n");
+        for (Map.Entry<K, LatencyHistogram> entry : histograms.entrySet()) {
+            writePrometheus(out, name, dimension, key.apply(entry.getKey()), entry.getValue());
+        }
+    }
+
+    private static void writePrometheus(StringBuilder out, String name, String dimension, String key,
+                                        LatencyHistogram histogram) {
+        String labels = dimension + "=\"" + escape(key) + "\"";
+        for (double quantile : QUANTILES) {
+            out.append(name).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                    .append(toSeconds(histogram.quantile(quantile))).append('\n');
+        }
+        out.append(name).append("_sum{").append(labels).append("} ")
+                .append(toSeconds(histogram.getSumMillis())).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(histogram.getCount()).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static double toSeconds(long millis) {
+        return millis / (double) TimeUnit.SECONDS.toMillis(1);
+    }
+}
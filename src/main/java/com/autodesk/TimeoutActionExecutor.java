@@ -0,0 +1,208 @@
+package com.autodesk;
+
+import com.autodesk.config.GlobalTimeoutConfig;
+import com.autodesk.config.TimeoutSettings;
+import hudson.init.Terminator;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import jenkins.security.ImpersonatingExecutorService;
+import jenkins.util.NamingThreadFactory;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded thread pool that runs every action of the plugin (build aborts, queue cancellations), so that a burst of
+ * timeouts cannot starve {@link hudson.model.Computer#threadPoolForRemoting} or {@link jenkins.util.Timer}. Tasks run
+ * as {@link ACL#SYSTEM}.
+ *
+ * The pool size and the number of tasks allowed to wait are read from {@link GlobalTimeoutConfig}. A task submitted
+ * while the pool is saturated is not run on the caller's thread: it is deferred to the next tick of the
+ * {@link DeadlineScheduler} and counted as rejected, which pushes back on the producers without blocking them.
+ * Deadline and abort actions submitted through {@link #execute} are never dropped: there is one per pending deadline,
+ * so their backlog is bounded by the number of deadlines. Work that can be redone later is submitted through
+ * {@link #offer} instead, and is dropped and counted once the deferred backlog exceeds the same capacity, so that a
+ * sustained overload cannot grow the scheduler without limit.
+ */
+public final class TimeoutActionExecutor {
+
+    private static final Logger LOGGER = Logger.getLogger(TimeoutActionExecutor.class.getName());
+
+    private static TimeoutActionExecutor instance;
+
+    private final ThreadPoolExecutor pool;
+    private final ExecutorService executor;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger deferred = new AtomicInteger();
+    private final AtomicBoolean overflowing = new AtomicBoolean();  // logged the current overflow already
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private TimeoutActionExecutor(int threads) {
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "global-build-timeout action"));
+        this.pool.allowCoreThreadTimeOut(true);
+        this.executor = new ImpersonatingExecutorService(pool, ACL.SYSTEM);
+    }
+
+    /**
+     * @return The action executor of the plugin, started on first use
+     */
+    @Nonnull
+    public static synchronized TimeoutActionExecutor get() {
+        if (instance == null) {
+            instance = new TimeoutActionExecutor(GlobalTimeoutConfig.settings().getActionThreads());
+        }
+        return instance;
+    }
+
+    /**
+     * Stops the pool when Jenkins shuts down
+     */
+    @Terminator
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.pool.shutdownNow();
+            instance = null;
+        }
+    }
+
+    /**
+     * Runs a task on the pool, or defers it to the next scheduler tick if the pool is saturated. The task is deferred
+     * as long as needed and always runs eventually
+     * @param task The task to run. It must not block
+     */
+    public void execute(@Nonnull Runnable task) {
+        submit(task, false, false);
+    }
+
+    /**
+     * Runs a task on the pool, or defers it to the next scheduler tick if the pool is saturated. At most
+     * {@link GlobalTimeoutConfig#getActionQueueCapacity()} tasks are deferred at a time, further tasks are dropped.
+     * Only for work the caller redoes itself when it is dropped
+     * @param task The task to run. It must not block
+     * @return false if the task was dropped and will never run
+     */
+    public boolean offer(@Nonnull Runnable task) {
+        return submit(task, false, true);
+    }
+
+    /**
+     * @param task The task to run
+     * @param deferredBefore true if the task already holds a place in the deferred backlog
+     * @param droppable true if the task may be dropped when the deferred backlog is full
+     * @return false if the task was dropped
+     */
+    private boolean submit(Runnable task, boolean deferredBefore, boolean droppable) {
+        TimeoutSettings settings = GlobalTimeoutConfig.settings();
+        resize(settings.getActionThreads());
+        if (queued.incrementAndGet() > settings.getActionQueueCapacity()) {
+            queued.decrementAndGet();
+            return defer(task, deferredBefore, droppable, settings);
+        }
+        try {
+            executor.execute(() -> {
+                queued.decrementAndGet();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Timeout action failed", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            return defer(task, deferredBefore, droppable, settings);
+        }
+        if (deferredBefore) {
+            deferred.decrementAndGet();
+            overflowing.set(false);
+        }
+        return true;
+    }
+
+    private boolean defer(Runnable task, boolean deferredBefore, boolean droppable, TimeoutSettings settings) {
+        if (!deferredBefore && deferred.incrementAndGet() > settings.getActionQueueCapacity() && droppable) {
+            deferred.decrementAndGet();
+            dropped.increment();
+            if (overflowing.compareAndSet(false, true)) {
+                LOGGER.warning("Timeout actions are dropped, " + deferred.get() + " actions wait for a thread");
+            }
+            return false;
+        }
+        rejected.increment();
+        DeadlineScheduler.get().scheduleOnTicker(System.currentTimeMillis() + DeadlineScheduler.TICK_MILLIS,
+                () -> submit(task, true, droppable));
+        return true;
+    }
+
+    private synchronized void resize(int threads) {
+        if (threads < 1 || threads == pool.getMaximumPoolSize()) {
+            return;
+        }
+        if (threads > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(threads);
+            pool.setCorePoolSize(threads);
+        } else {
+            pool.setCorePoolSize(threads);
+            pool.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * @return The number of tasks waiting for a thread
+     */
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * @return The number of threads currently running a task
+     */
+    public int getActiveCount() {
+        return pool.getActiveCount();
+    }
+
+    /**
+     * @return The maximum number of threads of the pool
+     */
+    public int getMaximumPoolSize() {
+        return pool.getMaximumPoolSize();
+    }
+
+    /**
+     * @return The number of tasks deferred because the pool was saturated
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return The number of tasks deferred to the scheduler that have not been handed to the pool yet
+     */
+    public int getDeferredCount() {
+        return deferred.get();
+    }
+
+    /**
+     * @return The number of tasks dropped because the deferred backlog was full
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return The number of tasks that have completed
+     */
+    public long getCompletedCount() {
+        return pool.getCompletedTaskCount();
+    }
+}
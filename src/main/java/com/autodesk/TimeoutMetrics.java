@@ -0,0 +1,229 @@
+package com.autodesk;
+
+import net.sf.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory counters of the work done by the plugin: queue sweeps, expired queue items, cancellations and build
+ * aborts. Updating a counter never blocks, so the instrumentation can stay on the hot paths. The counters are reset
+ * when Jenkins restarts and are exposed by {@link TimeoutMetricsAction}.
+ */
+public final class TimeoutMetrics {
+
+    private static final TimeoutMetrics INSTANCE = new TimeoutMetrics();
+
+    private final LongAdder sweeps = new LongAdder();
+    private final LongAdder sweepNanos = new LongAdder();
+    private final AtomicLong lastSweepNanos = new AtomicLong();
+    private final AtomicLong maxSweepNanos = new AtomicLong();
+    private final AtomicLong lastItemsExamined = new AtomicLong();
+    private final LongAdder itemsExamined = new LongAdder();
+    private final Map<QueueDeadlineIndex.Kind, LongAdder> expirations = new EnumMap<>(QueueDeadlineIndex.Kind.class);
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder cancellations = new LongAdder();
+    private final LongAdder cancellationNanos = new LongAdder();
+    private final AtomicLong maxCancellationNanos = new AtomicLong();
+    private final LongAdder abandonedCancellations = new LongAdder();
+    private final Map<AbortEscalation.Stage, LongAdder> aborts = new EnumMap<>(AbortEscalation.Stage.class);
+
+    private TimeoutMetrics() {
+        for (QueueDeadlineIndex.Kind kind : QueueDeadlineIndex.Kind.values()) {
+            expirations.put(kind, new LongAdder());
+        }
+        for (AbortEscalation.Stage stage : AbortEscalation.Stage.values()) {
+            aborts.put(stage, new LongAdder());
+        }
+    }
+
+    /**
+     * @return The metrics of the plugin
+     */
+    @Nonnull
+    public static TimeoutMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records one run of {@link QueueTimeout#checkForTimeout()}
+     * @param nanos The wall time of the sweep
+     * @param examined The number of queue items the sweep looked at
+     */
+    void recordSweep(long nanos, int examined) {
+        sweeps.increment();
+        sweepNanos.add(nanos);
+        lastSweepNanos.set(nanos);
+        maxSweepNanos.accumulateAndGet(nanos, Math::max);
+        itemsExamined.add(examined);
+        lastItemsExamined.set(examined);
+    }
+
+    /**
+     * Records a queue item that exceeded one of the queue timeouts and was submitted for cancellation
+     * @param kind The timeout that was exceeded
+     */
+    void recordExpiration(@Nonnull QueueDeadlineIndex.Kind kind) {
+        expirations.get(kind).increment();
+    }
+
+    /**
+     * Records queue items submitted for cancellation by load shedding
+     * @param count The number of items
+     */
+    void recordShed(int count) {
+        shed.add(count);
+    }
+
+    /**
+     * Records a task refused before entering the queue because no agent can serve its label
+     */
+    void recordRejection() {
+        rejections.increment();
+    }
+
+    /**
+     * Records a completed queue cancellation
+     * @param nanos The time from the cancellation request until the item was cancelled
+     */
+    void recordCancellation(long nanos) {
+        cancellations.increment();
+        cancellationNanos.add(nanos);
+        maxCancellationNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Records a queue cancellation that was given up after too many failed attempts
+     */
+    void recordAbandonedCancellation() {
+        abandonedCancellations.increment();
+    }
+
+    /**
+     * Records one step of a build abort
+     * @param stage The step that was performed
+     */
+    void recordAbort(@Nonnull AbortEscalation.Stage stage) {
+        aborts.get(stage).increment();
+    }
+
+    /**
+     * @return The number of queue sweeps since startup
+     */
+    public long getSweepCount() {
+        return sweeps.sum();
+    }
+
+    /**
+     * @return The total number of queue items examined by the sweeps since startup
+     */
+    public long getItemsExamined() {
+        return itemsExamined.sum();
+    }
+
+    /**
+     * @param kind A queue timeout
+     * @return The number of queue items that exceeded the timeout since startup
+     */
+    public long getExpirations(@Nonnull QueueDeadlineIndex.Kind kind) {
+        return expirations.get(kind).sum();
+    }
+
+    /**
+     * @return The number of queue items cancelled by load shedding since startup
+     */
+    public long getShedCount() {
+        return shed.sum();
+    }
+
+    /**
+     * @return The number of tasks refused before entering the queue since startup
+     */
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    /**
+     * @return The number of completed queue cancellations since startup
+     */
+    public long getCancellationCount() {
+        return cancellations.sum();
+    }
+
+    /**
+     * @param stage A step of the abort ladder
+     * @return The number of times the step was performed since startup
+     */
+    long getAborts(@Nonnull AbortEscalation.Stage stage) {
+        return aborts.get(stage).sum();
+    }
+
+    /**
+     * @return A snapshot of all the counters, including the state of the action executor and the cancellation
+     * coordinator. Durations are in milliseconds
+     */
+    @Nonnull
+    JSONObject toJSON() {
+        JSONObject sweep = new JSONObject();
+        long sweepCount = sweeps.sum();
+        sweep.put("count", sweepCount);
+        sweep.put("lastMillis", toMillis(lastSweepNanos.get()));
+        sweep.put("maxMillis", toMillis(maxSweepNanos.get()));
+        sweep.put("meanMillis", sweepCount == 0 ? 0 : toMillis(sweepNanos.sum() / sweepCount));
+        sweep.put("itemsExamined", itemsExamined.sum());
+        sweep.put("lastItemsExamined", lastItemsExamined.get());
+        sweep.put("trackedItems", QueueDeadlineIndex.get().size());
+
+        JSONObject expired = new JSONObject();
+        for (Map.Entry<QueueDeadlineIndex.Kind, LongAdder> entry : expirations.entrySet()) {
+            expired.put(entry.getKey().name(), entry.getValue().sum());
+        }
+        expired.put("LOAD_SHEDDING", shed.sum());
+        expired.put("REJECTED", rejections.sum());
+
+        JSONObject cancellation = new JSONObject();
+        long cancellationCount = cancellations.sum();
+        QueueCancellationCoordinator coordinator = QueueCancellationCoordinator.get();
+        cancellation.put("count", cancellationCount);
+        cancellation.put("abandoned", abandonedCancellations.sum());
+        cancellation.put("meanLatencyMillis",
+                cancellationCount == 0 ? 0 : toMillis(cancellationNanos.sum() / cancellationCount));
+        cancellation.put("maxLatencyMillis", toMillis(maxCancellationNanos.get()));
+        cancellation.put("lastLockHoldMillis", toMillis(coordinator.getLastLockHoldNanos()));
+        cancellation.put("maxLockHoldMillis", toMillis(coordinator.getMaxLockHoldNanos()));
+
+        JSONObject abort = new JSONObject();
+        for (Map.Entry<AbortEscalation.Stage, LongAdder> entry : aborts.entrySet()) {
+            abort.put(entry.getKey().name(), entry.getValue().sum());
+        }
+
+        JSONObject executor = new JSONObject();
+        TimeoutActionExecutor actionExecutor = TimeoutActionExecutor.get();
+        executor.put("threads", actionExecutor.getMaximumPoolSize());
+        executor.put("active", actionExecutor.getActiveCount());
+        executor.put("queueDepth", actionExecutor.getQueueDepth());
+        executor.put("completed", actionExecutor.getCompletedCount());
+        executor.put("rejected", actionExecutor.getRejectedCount());
+        executor.put("deferred", actionExecutor.getDeferredCount());
+        executor.put("dropped", actionExecutor.getDroppedCount());
+        executor.put("pendingDeadlines", DeadlineScheduler.get().size());
+
+        JSONObject json = new JSONObject();
+        json.put("sweep", sweep);
+        json.put("expired", expired);
+        json.put("cancellation", cancellation);
+        json.put("abort", abort);
+        json.put("executor", executor);
+        json.put("queueWait", QueueWaitMetrics.get().toJSON());
+        return json;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,54 @@
+package com.autodesk;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+
+/**
+ * Exposes {@link TimeoutMetrics} as JSON at {@code /global-build-timeout/}, and the queue wait histograms of
+ * {@link QueueWaitMetrics} in the Prometheus text format at {@code /global-build-timeout/prometheus}, for
+ * administrators only. The action has
+ * no icon and does not show up in the side panel.
+ */
+@Extension
+public class TimeoutMetricsAction implements RootAction {
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return "global-build-timeout";
+    }
+
+    /**
+     * Writes the current metrics as JSON
+     */
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().write(TimeoutMetrics.get().toJSON().toString(2));
+    }
+
+    /**
+     * Writes the queue wait histograms in the Prometheus text format, for scraping
+     */
+    public void doPrometheus(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        StringBuilder out = new StringBuilder();
+        QueueWaitMetrics.get().writePrometheus(out);
+        rsp.setContentType("text/plain;version=0.0.4;charset=UTF-8");
+        rsp.getWriter().write(out.toString());
+    }
+}
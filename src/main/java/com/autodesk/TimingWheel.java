@@ -0,0 +1,196 @@
+package com.autodesk;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel keyed on abstract ticks. Inserting and cancelling a {@link Node} are O(1); advancing
+ * the wheel by one tick is O(1) amortised plus the number of nodes that expire or cascade on that tick.
+ *
+ * The wheel has {@link #LEVELS} levels of {@link #SLOTS} slots each. Level 0 holds nodes due within the next
+ * {@link #SLOTS} ticks, level 1 nodes due within the next {@code SLOTS^2} ticks, and so on. Whenever the lower levels
+ * wrap around, the matching slot of the level above is cascaded down. Nodes further away than the wheel can represent
+ * are parked in the last slot of the top level and re-placed when that slot cascades.
+ *
+ * This class is not thread safe. Callers are expected to guard every access with a single lock (see
+ * {@link DeadlineScheduler}).
+ */
+final class TimingWheel {
+
+    static final int WHEEL_BITS = 6;
+    static final int SLOTS = 1 << WHEEL_BITS;
+    static final int LEVELS = 4;
+    private static final int MASK = SLOTS - 1;
+    private static final long MAX_SPAN = 1L << (WHEEL_BITS * LEVELS);
+
+    private final Node[][] slots = new Node[LEVELS][SLOTS];
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param startTick The tick the wheel starts at. Nodes must expire after this tick
+     */
+    TimingWheel(long startTick) {
+        this.currentTick = startTick;
+    }
+
+    /**
+     * An entry of the wheel. Each node is an element of an intrusive doubly linked list so that it can be unlinked
+     * from its slot in constant time.
+     */
+    static class Node {
+        long expiryTick;
+        private Node prev;
+        private Node next;
+        private int level = -1;
+        private int slot;
+
+        /**
+         * @return true if this node is currently held by a wheel
+         */
+        boolean isScheduled() {
+            return level >= 0;
+        }
+    }
+
+    /**
+     * @return The last tick that has been processed
+     */
+    long currentTick() {
+        return currentTick;
+    }
+
+    /**
+     * @return The number of nodes waiting in the wheel
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Moves the wheel forward without processing any slot. Only valid while the wheel is empty.
+     * @param tick The new current tick
+     */
+    void reset(long tick) {
+        if (size != 0) {
+            throw new IllegalStateException("Cannot reset a timing wheel holding " + size + " nodes");
+        }
+        currentTick = Math.max(currentTick, tick);
+    }
+
+    /**
+     * Inserts a node. A node that is already due expires on the next tick.
+     * @param node The node to insert, with {@link Node#expiryTick} set
+     */
+    void add(Node node) {
+        if (node.isScheduled()) {
+            throw new IllegalStateException("Node is already scheduled");
+        }
+        if (node.expiryTick <= currentTick) {
+            node.expiryTick = currentTick + 1;
+        }
+        place(node);
+        size++;
+    }
+
+    /**
+     * Removes a node from the wheel
+     * @param node The node to remove
+     * @return true if the node was still waiting in the wheel
+     */
+    boolean remove(Node node) {
+        if (!node.isScheduled()) {
+            return false;
+        }
+        unlink(node);
+        size--;
+        return true;
+    }
+
+    /**
+     * Advances the wheel tick by tick, handing every expired node to the consumer.
+     * @param tick The tick to advance to. Ticks at or before the current tick are ignored
+     * @param expired Receives each node once it has expired. The node is already removed from the wheel
+     */
+    void advanceTo(long tick, Consumer<Node> expired) {
+        while (currentTick < tick) {
+            if (size == 0) {
+                currentTick = tick;
+                return;
+            }
+            currentTick++;
+            // cascade from the top so nodes moving down never land in a slot that has already been cascaded
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) ((currentTick >>> (WHEEL_BITS * level)) & MASK));
+                }
+            }
+            int index = (int) (currentTick & MASK);
+            Node node = slots[0][index];
+            slots[0][index] = null;
+            while (node != null) {
+                Node next = node.next;
+                node.prev = null;
+                node.next = null;
+                node.level = -1;
+                if (node.expiryTick <= currentTick) {
+                    size--;
+                    expired.accept(node);
+                } else {
+                    place(node);
+                }
+                node = next;
+            }
+        }
+    }
+
+    private void cascade(int level, int index) {
+        Node node = slots[level][index];
+        slots[level][index] = null;
+        while (node != null) {
+            Node next = node.next;
+            node.prev = null;
+            node.next = null;
+            node.level = -1;
+            place(node);
+            node = next;
+        }
+    }
+
+    private void place(Node node) {
+        long delta = node.expiryTick - currentTick;
+        long target = node.expiryTick;
+        if (delta >= MAX_SPAN) {
+            // too far away for the wheel: park it in the furthest slot and re-place it when that slot cascades
+            target = currentTick + MAX_SPAN - 1;
+            delta = MAX_SPAN - 1;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+        int index = (int) ((Math.max(target, currentTick) >>> (WHEEL_BITS * level)) & MASK);
+        Node head = slots[level][index];
+        node.level = level;
+        node.slot = index;
+        node.prev = null;
+        node.next = head;
+        if (head != null) {
+            head.prev = node;
+        }
+        slots[level][index] = node;
+    }
+
+    private void unlink(Node node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            slots[node.level][node.slot] = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        node.level = -1;
+    }
+}
@@ -0,0 +1,72 @@
+package com.autodesk;
+
+import com.autodesk.config.GlobalTimeoutConfig;
+import com.autodesk.config.TimeoutSettings;
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.model.Action;
+import hudson.model.Item;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.labels.LabelAssignmentAction;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Refuses tasks whose label no node or cloud can serve before they enter the queue, when enabled in the
+ * {@link GlobalTimeoutConfig}. Such tasks would otherwise wait for the whole "No such node" queue timeout and be
+ * re-evaluated by every queue maintenance in the meantime. The answer comes from the {@link AgentLabelIndex}, so the
+ * check costs a map lookup. Jobs on the admission allowlist are let in and handled by the queue timeouts as before.
+ */
+@Extension
+public class UnservableLabelDecisionHandler extends Queue.QueueDecisionHandler {
+
+    private static final Logger LOGGER = Logger.getLogger(UnservableLabelDecisionHandler.class.getName());
+
+    @Override
+    public boolean shouldSchedule(Queue.Task p, List<Action> actions) {
+        TimeoutSettings settings = GlobalTimeoutConfig.settings();
+        if (!settings.isRejectUnservableLabels()) {
+            return true;
+        }
+        // nodes and clouds are not all loaded before Jenkins has started
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null || jenkins.getInitLevel() != InitMilestone.COMPLETED) {
+            return true;
+        }
+        Label label = getAssignedLabel(p, actions);
+        if (label == null || AgentLabelIndex.get().hasAgent(label)) {
+            return true;
+        }
+        Queue.Task owner = p.getOwnerTask();
+        if (owner instanceof Item && settings.isAdmissionAllowed(((Item) owner).getFullName())) {
+            return true;
+        }
+        TimeoutMetrics.get().recordRejection();
+        LOGGER.fine("Refusing " + p.getFullDisplayName() + " as there are no agents associated with the label used: "
+                + label.getExpression());
+        return false;
+    }
+
+    /**
+     * Resolves the label of a task the same way {@link Queue.Item#getAssignedLabel()} does once it is queued
+     * @param task The task being scheduled
+     * @param actions The actions the task is scheduled with
+     * @return The label of the task, or null if it can run anywhere
+     */
+    @CheckForNull
+    private static Label getAssignedLabel(Queue.Task task, List<Action> actions) {
+        for (Action action : actions) {
+            if (action instanceof LabelAssignmentAction) {
+                Label label = ((LabelAssignmentAction) action).getAssignedLabel(task);
+                if (label != null) {
+                    return label;
+                }
+            }
+        }
+        return task.getAssignedLabel();
+    }
+}
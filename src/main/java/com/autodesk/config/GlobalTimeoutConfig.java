@@ -1,26 +1,96 @@
 package com.autodesk.config;
 
+import hudson.BulkChange;
 import hudson.Extension;
+import hudson.init.Terminator;
+import hudson.util.FormValidation;
 import jenkins.model.GlobalConfiguration;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 @Extension
 public class GlobalTimeoutConfig extends GlobalConfiguration implements TimeoutConfig {
 
-    private Integer buildTimeout;  // timeout in minutes. if timeout is 0, no timeout.
-    private Integer queueTimeout;  // queue timeout in minutes. if timeout is 0, no timeout.
-    private Integer noSuchNodeQueueTimeout;
+    // timeouts are stored as TimeoutDuration settings. older configurations hold a plain number of minutes
+    private String buildTimeout;  // if timeout is 0, no timeout.
+    private String queueTimeout;  // if timeout is 0, no timeout.
+    private String noSuchNodeQueueTimeout;
+    private Double adaptiveTimeoutFactor;  // timeout as a multiple of the p95 of recent successful builds, 0 to disable
+    private Integer adaptiveTimeoutMinBuilds;  // successful builds needed before the adaptive timeout applies
+    private String logInactivityTimeout;  // time without build log output before a build is aborted, empty to disable
     private Integer gracePeriod;
+    private Integer cancellationBatchSize;  // max queue items cancelled under one queue lock
+    private Integer cancellationBatchInterval;  // pause between two cancellation batches in seconds
+    private Integer actionThreads;  // threads running aborts and cancellations
+    private Integer actionQueueCapacity;  // actions allowed to wait for a thread before being deferred
+    private Integer sweepMinInterval;  // shortest pause between two queue sweeps in seconds
+    private Integer sweepMaxInterval;  // longest pause between two queue sweeps in seconds while items are queued
+    private List<TimeoutPolicyRule> policyRules;
+    private Integer sheddingHighWatermark;  // queue length that starts load shedding, 0 to disable
+    private Integer sheddingLowWatermark;  // queue length load shedding brings the queue back to, 0 for the default
+    private String sheddingMaxAge;  // age of the oldest queue item that starts load shedding, empty to disable
+    private String sheddingTargetAge;  // age of the oldest queue item load shedding brings the queue back to
+    private boolean rejectUnservableLabels;  // refuse queue items whose label no agent or cloud can serve
+    private String admissionAllowlist;  // jobs and folders allowed to wait for agents, one per line
+
+    // snapshot of the configuration last saved, read by the hot paths
+    private static volatile TimeoutSettings snapshot;
+
+    // values of the settings that were never configured
+    static final int DEFAULT_GRACE_PERIOD = 10;  // seconds
+    static final int DEFAULT_CANCELLATION_BATCH_SIZE = 50;
+    static final int DEFAULT_CANCELLATION_BATCH_INTERVAL = 1;  // seconds
+    static final int DEFAULT_ACTION_THREADS = 4;
+    static final int DEFAULT_ACTION_QUEUE_CAPACITY = 1000;
+    static final int DEFAULT_SWEEP_MIN_INTERVAL = 5;  // seconds
+    static final int DEFAULT_SWEEP_MAX_INTERVAL = 60;  // seconds
+    static final int DEFAULT_ADAPTIVE_TIMEOUT_MIN_BUILDS = 10;
 
     public GlobalTimeoutConfig() {
         load();
         if (gracePeriod == null) {
-            gracePeriod = 10;  // default grace period is 5 seconds
+            gracePeriod = DEFAULT_GRACE_PERIOD;
+        }
+        if (cancellationBatchSize == null) {
+            cancellationBatchSize = DEFAULT_CANCELLATION_BATCH_SIZE;
+        }
+        if (cancellationBatchInterval == null) {
+            cancellationBatchInterval = DEFAULT_CANCELLATION_BATCH_INTERVAL;
+        }
+        if (actionThreads == null) {
+            actionThreads = DEFAULT_ACTION_THREADS;
+        }
+        if (actionQueueCapacity == null) {
+            actionQueueCapacity = DEFAULT_ACTION_QUEUE_CAPACITY;
+        }
+        if (sweepMinInterval == null) {
+            sweepMinInterval = DEFAULT_SWEEP_MIN_INTERVAL;
+        }
+        if (sweepMaxInterval == null) {
+            sweepMaxInterval = DEFAULT_SWEEP_MAX_INTERVAL;
         }
+        if (adaptiveTimeoutFactor == null) {
+            adaptiveTimeoutFactor = 0.0;
+        }
+        if (adaptiveTimeoutMinBuilds == null) {
+            adaptiveTimeoutMinBuilds = DEFAULT_ADAPTIVE_TIMEOUT_MIN_BUILDS;
+        }
+        if (sheddingHighWatermark == null) {
+            sheddingHighWatermark = 0;
+        }
+        if (sheddingLowWatermark == null) {
+            sheddingLowWatermark = 0;
+        }
+        snapshot = new TimeoutSettings(this);
     }
 
     public static GlobalTimeoutConfig get() {
@@ -28,67 +98,383 @@ public class GlobalTimeoutConfig extends GlobalConfiguration implements TimeoutC
     }
 
     /**
-     * Sets the build timeout setting. Configured on the configure page of Jenkins
+     * Gets the configuration as it was last saved, without an extension lookup. The snapshot is immutable, so all the
+     * settings read from it are consistent with each other
+     * @return The current settings, or the default settings while the configuration is not loaded
+     */
+    @Nonnull
+    public static TimeoutSettings settings() {
+        TimeoutSettings current = snapshot;
+        if (current == null) {
+            // loading the configuration publishes the first snapshot. After clearSettings() the existing
+            // configuration is not loaded again, so the snapshot is rebuilt from it
+            GlobalTimeoutConfig config = get();
+            if (config == null) {
+                // not loaded yet, or already unloaded while Jenkins shuts down. Nothing is published, so the
+                // configuration is used as soon as it is loaded
+                return TimeoutSettings.DEFAULTS;
+            }
+            synchronized (config) {
+                if (snapshot == null) {
+                    snapshot = new TimeoutSettings(config);
+                }
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Drops the snapshot when Jenkins shuts down, so that it is never read from a previous instance
+     */
+    @Terminator
+    public static void clearSettings() {
+        snapshot = null;
+    }
+
+    /**
+     * Publishes a new snapshot of the settings and writes the configuration to disk. Does nothing while a
+     * {@link BulkChange} is in progress, so that a form submission or a Configuration as Code apply that calls
+     * many setters is published and written once, when the bulk change is committed
+     */
+    @Override
+    public synchronized void save() {
+        if (BulkChange.contains(this)) {
+            return;
+        }
+        snapshot = new TimeoutSettings(this);
+        super.save();
+    }
+
+    /**
+     * Sets the build timeout setting. Kept so that older configurations and scripts still bind, deprecated so that
+     * exports only carry {@link #getBuildTimeoutDuration()}
      * @param buildTimeout The build timeout in minutes
+     * @deprecated use {@link #setBuildTimeoutDuration(String)}
      */
+    @Deprecated
     @DataBoundSetter
     public void setBuildTimeout(Integer buildTimeout) {
 
-        this.buildTimeout = buildTimeout;
+        this.buildTimeout = TimeoutDuration.fromMinutes(buildTimeout);
         save();
     }
 
     /**
      * Gets the global timeout setting configured on the configure page of Jenkins
-     * @return The build timeout in minutes
+     * @return The build timeout in whole minutes, rounded down (see {@link #getBuildTimeoutMillis()})
+     * @deprecated use {@link #getBuildTimeoutDuration()}
      */
+    @Deprecated
     @CheckForNull
     public Integer getBuildTimeout() {
-        return buildTimeout;
+        return TimeoutDuration.toMinutes(buildTimeout);
+    }
+
+    /**
+     * Sets the build timeout with second precision
+     * @param buildTimeoutDuration The build timeout, e.g. 90s or 2m30s (see {@link TimeoutDuration})
+     * @throws IllegalArgumentException if the timeout is not valid
+     */
+    @DataBoundSetter
+    public void setBuildTimeoutDuration(String buildTimeoutDuration) {
+        this.buildTimeout = TimeoutDuration.normalize(buildTimeoutDuration);
+        save();
+    }
+
+    /**
+     * @return The build timeout setting, e.g. 1m30s
+     */
+    @CheckForNull
+    public String getBuildTimeoutDuration() {
+        return TimeoutDuration.normalize(buildTimeout);
     }
 
+    /**
+     * @return The build timeout in milliseconds, or 0 if there is no timeout
+     */
+    @Override
+    public long getBuildTimeoutMillis() {
+        return TimeoutDuration.toMillis(buildTimeout);
+    }
 
     /**
-     * Sets the queue timeout setting. Configured on the configure page of Jenkins
+     * Sets the queue timeout setting. Kept so that older configurations and scripts still bind
      * @param queueTimeout The queue timeout in minutes
+     * @deprecated use {@link #setQueueTimeoutDuration(String)}
      */
+    @Deprecated
     @DataBoundSetter
     public void setQueueTimeout(Integer queueTimeout) {
-        this.queueTimeout = queueTimeout;
+        this.queueTimeout = TimeoutDuration.fromMinutes(queueTimeout);
         save();
     }
 
     /**
      * Gets the queue timeout setting configured on the configurte page of Jenkins
-     * @return The queue timeout in minutes
+     * @return The queue timeout in whole minutes, rounded down (see {@link #getQueueTimeoutMillis()})
+     * @deprecated use {@link #getQueueTimeoutDuration()}
      */
+    @Deprecated
     @CheckForNull
     public Integer getQueueTimeout() {
-        return queueTimeout;
+        return TimeoutDuration.toMinutes(queueTimeout);
+    }
+
+    /**
+     * Sets the queue timeout with second precision
+     * @param queueTimeoutDuration The queue timeout, e.g. 90s or 2m30s (see {@link TimeoutDuration})
+     * @throws IllegalArgumentException if the timeout is not valid
+     */
+    @DataBoundSetter
+    public void setQueueTimeoutDuration(String queueTimeoutDuration) {
+        this.queueTimeout = TimeoutDuration.normalize(queueTimeoutDuration);
+        save();
     }
 
+    /**
+     * @return The queue timeout setting, e.g. 1m30s
+     */
+    @CheckForNull
+    public String getQueueTimeoutDuration() {
+        return TimeoutDuration.normalize(queueTimeout);
+    }
+
+    /**
+     * @return The queue timeout in milliseconds, or 0 if there is no timeout
+     */
+    public long getQueueTimeoutMillis() {
+        return TimeoutDuration.toMillis(queueTimeout);
+    }
+
+    /**
+     * Binds a submitted form. If the form is rejected, the settings are restored to the values they had before, so
+     * that a later save does not write a partly bound form
+     */
     @Override
-    public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
-        req.bindJSON(this, json);
+    public synchronized boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+        Values before = new Values(this);
+        boolean committed = false;
+        try (BulkChange bc = new BulkChange(this)) {
+            setPolicyRules(null);  // not submitted when all rules were deleted
+            req.bindJSON(this, json);
+            if (sheddingHighWatermark > 0 && sheddingLowWatermark > sheddingHighWatermark) {
+                throw new FormException("The load shedding low-water mark is above the high-water mark",
+                        "sheddingLowWatermark");
+            }
+            bc.commit();
+            committed = true;
+        } catch (IllegalArgumentException e) {
+            throw new FormException(e.getMessage(), e, null);
+        } catch (IOException e) {
+            throw new FormException(e, null);
+        } finally {
+            if (!committed) {
+                before.restore(this);
+                snapshot = new TimeoutSettings(this);
+            }
+        }
         return true;
     }
 
     /**
-     * Sets the "No such node" queue timeout setting
+     * The bound value of every setting, taken before a form is bound so that a rejected form can be undone. Holds the
+     * stored settings rather than going through the setters, which would save the configuration again
+     */
+    private static final class Values {
+        private final String buildTimeout;
+        private final String queueTimeout;
+        private final String noSuchNodeQueueTimeout;
+        private final Double adaptiveTimeoutFactor;
+        private final Integer adaptiveTimeoutMinBuilds;
+        private final String logInactivityTimeout;
+        private final Integer gracePeriod;
+        private final Integer cancellationBatchSize;
+        private final Integer cancellationBatchInterval;
+        private final Integer actionThreads;
+        private final Integer actionQueueCapacity;
+        private final Integer sweepMinInterval;
+        private final Integer sweepMaxInterval;
+        private final List<TimeoutPolicyRule> policyRules;
+        private final Integer sheddingHighWatermark;
+        private final Integer sheddingLowWatermark;
+        private final String sheddingMaxAge;
+        private final String sheddingTargetAge;
+        private final boolean rejectUnservableLabels;
+        private final String admissionAllowlist;
+
+        Values(GlobalTimeoutConfig config) {
+            this.buildTimeout = config.buildTimeout;
+            this.queueTimeout = config.queueTimeout;
+            this.noSuchNodeQueueTimeout = config.noSuchNodeQueueTimeout;
+            this.adaptiveTimeoutFactor = config.adaptiveTimeoutFactor;
+            this.adaptiveTimeoutMinBuilds = config.adaptiveTimeoutMinBuilds;
+            this.logInactivityTimeout = config.logInactivityTimeout;
+            this.gracePeriod = config.gracePeriod;
+            this.cancellationBatchSize = config.cancellationBatchSize;
+            this.cancellationBatchInterval = config.cancellationBatchInterval;
+            this.actionThreads = config.actionThreads;
+            this.actionQueueCapacity = config.actionQueueCapacity;
+            this.sweepMinInterval = config.sweepMinInterval;
+            this.sweepMaxInterval = config.sweepMaxInterval;
+            this.policyRules = config.policyRules;  // replaced, never modified, by setPolicyRules
+            this.sheddingHighWatermark = config.sheddingHighWatermark;
+            this.sheddingLowWatermark = config.sheddingLowWatermark;
+            this.sheddingMaxAge = config.sheddingMaxAge;
+            this.sheddingTargetAge = config.sheddingTargetAge;
+            this.rejectUnservableLabels = config.rejectUnservableLabels;
+            this.admissionAllowlist = config.admissionAllowlist;
+        }
+
+        void restore(GlobalTimeoutConfig config) {
+            config.buildTimeout = buildTimeout;
+            config.queueTimeout = queueTimeout;
+            config.noSuchNodeQueueTimeout = noSuchNodeQueueTimeout;
+            config.adaptiveTimeoutFactor = adaptiveTimeoutFactor;
+            config.adaptiveTimeoutMinBuilds = adaptiveTimeoutMinBuilds;
+            config.logInactivityTimeout = logInactivityTimeout;
+            config.gracePeriod = gracePeriod;
+            config.cancellationBatchSize = cancellationBatchSize;
+            config.cancellationBatchInterval = cancellationBatchInterval;
+            config.actionThreads = actionThreads;
+            config.actionQueueCapacity = actionQueueCapacity;
+            config.sweepMinInterval = sweepMinInterval;
+            config.sweepMaxInterval = sweepMaxInterval;
+            config.policyRules = policyRules;
+            config.sheddingHighWatermark = sheddingHighWatermark;
+            config.sheddingLowWatermark = sheddingLowWatermark;
+            config.sheddingMaxAge = sheddingMaxAge;
+            config.sheddingTargetAge = sheddingTargetAge;
+            config.rejectUnservableLabels = rejectUnservableLabels;
+            config.admissionAllowlist = admissionAllowlist;
+        }
+    }
+
+    /**
+     * Sets the "No such node" queue timeout setting. Kept so that older configurations and scripts still bind
      * @param noSuchNodeQueueTimeout The timeout setting in minutes
+     * @deprecated use {@link #setNoSuchNodeQueueTimeoutDuration(String)}
      */
+    @Deprecated
     @DataBoundSetter
     public void setNoSuchNodeQueueTimeout(Integer noSuchNodeQueueTimeout) {
-        this.noSuchNodeQueueTimeout = noSuchNodeQueueTimeout;
+        this.noSuchNodeQueueTimeout = TimeoutDuration.fromMinutes(noSuchNodeQueueTimeout);
+        save();
     }
 
     /**
      * Gets the "No such node" queue timeout setting. This setting times is the time limit allowed for builds that are
      * created with an invalid label (no nodes and clouds have such a label)
-     * @return The timeout setting in minutes
+     * @return The timeout setting in whole minutes, rounded down (see {@link #getNoSuchNodeQueueTimeoutMillis()})
+     * @deprecated use {@link #getNoSuchNodeQueueTimeoutDuration()}
      */
+    @Deprecated
     public Integer getNoSuchNodeQueueTimeout() {
-        return noSuchNodeQueueTimeout;
+        return TimeoutDuration.toMinutes(noSuchNodeQueueTimeout);
+    }
+
+    /**
+     * Sets the "No such node" queue timeout with second precision
+     * @param noSuchNodeQueueTimeoutDuration The timeout, e.g. 90s or 2m30s (see {@link TimeoutDuration})
+     * @throws IllegalArgumentException if the timeout is not valid
+     */
+    @DataBoundSetter
+    public void setNoSuchNodeQueueTimeoutDuration(String noSuchNodeQueueTimeoutDuration) {
+        this.noSuchNodeQueueTimeout = TimeoutDuration.normalize(noSuchNodeQueueTimeoutDuration);
+        save();
+    }
+
+    /**
+     * @return The "No such node" queue timeout setting, e.g. 1m30s
+     */
+    @CheckForNull
+    public String getNoSuchNodeQueueTimeoutDuration() {
+        return TimeoutDuration.normalize(noSuchNodeQueueTimeout);
+    }
+
+    /**
+     * @return The "No such node" queue timeout in milliseconds, or 0 if there is no timeout
+     */
+    public long getNoSuchNodeQueueTimeoutMillis() {
+        return TimeoutDuration.toMillis(noSuchNodeQueueTimeout);
+    }
+
+    /**
+     * Gets the multiple of the 95th percentile of the recent successful build durations of a job used as its build
+     * timeout, for jobs without a job timeout property
+     * @return The factor, or 0 if adaptive timeouts are disabled
+     */
+    public Double getAdaptiveTimeoutFactor() {
+        return adaptiveTimeoutFactor;
+    }
+
+    @DataBoundSetter
+    public void setAdaptiveTimeoutFactor(Double adaptiveTimeoutFactor) {
+        if (adaptiveTimeoutFactor == null || adaptiveTimeoutFactor < 0) {
+            adaptiveTimeoutFactor = 0.0;
+        }
+        this.adaptiveTimeoutFactor = adaptiveTimeoutFactor;
+        save();
+    }
+
+    /**
+     * Gets the number of successful builds a job needs before its adaptive timeout applies. Until then the other
+     * timeouts apply
+     * @return The number of builds
+     */
+    public Integer getAdaptiveTimeoutMinBuilds() {
+        return adaptiveTimeoutMinBuilds;
+    }
+
+    @DataBoundSetter
+    public void setAdaptiveTimeoutMinBuilds(Integer adaptiveTimeoutMinBuilds) {
+        if (adaptiveTimeoutMinBuilds == null || adaptiveTimeoutMinBuilds < 1) {
+            adaptiveTimeoutMinBuilds = 1;
+        }
+        this.adaptiveTimeoutMinBuilds = adaptiveTimeoutMinBuilds;
+        save();
+    }
+
+    /**
+     * @return The time a build may go without writing to its log before it is aborted, e.g. 30m, or null if stalled
+     * builds are not aborted
+     */
+    @CheckForNull
+    public String getLogInactivityTimeout() {
+        return TimeoutDuration.normalize(logInactivityTimeout);
+    }
+
+    /**
+     * @param logInactivityTimeout The time a build may go without log output (see {@link TimeoutDuration})
+     * @throws IllegalArgumentException if the timeout is not valid
+     */
+    @DataBoundSetter
+    public void setLogInactivityTimeout(String logInactivityTimeout) {
+        this.logInactivityTimeout = TimeoutDuration.normalize(logInactivityTimeout);
+        save();
+    }
+
+    /**
+     * @return The log inactivity timeout in milliseconds, or 0 if there is no timeout
+     */
+    public long getLogInactivityTimeoutMillis() {
+        return TimeoutDuration.toMillis(logInactivityTimeout);
+    }
+
+    public FormValidation doCheckLogInactivityTimeout(@QueryParameter String value) {
+        return TimeoutDuration.check(value);
+    }
+
+    public FormValidation doCheckBuildTimeoutDuration(@QueryParameter String value) {
+        return TimeoutDuration.check(value);
+    }
+
+    public FormValidation doCheckQueueTimeoutDuration(@QueryParameter String value) {
+        return TimeoutDuration.check(value);
+    }
+
+    public FormValidation doCheckNoSuchNodeQueueTimeoutDuration(@QueryParameter String value) {
+        return TimeoutDuration.check(value);
     }
 
     public Integer getGracePeriod() {
@@ -102,5 +488,259 @@ public class GlobalTimeoutConfig extends GlobalConfiguration implements TimeoutC
             throw new NullPointerException("Grace period value expected but received null");
         }
         this.gracePeriod = gracePeriod;
+        save();
+    }
+
+    /**
+     * Gets the maximum number of queue items cancelled while holding the queue lock once
+     * @return The batch size
+     */
+    public Integer getCancellationBatchSize() {
+        return cancellationBatchSize;
+    }
+
+    @DataBoundSetter
+    public void setCancellationBatchSize(Integer cancellationBatchSize) {
+        if (cancellationBatchSize == null || cancellationBatchSize < 1) {
+            cancellationBatchSize = 1;
+        }
+        this.cancellationBatchSize = cancellationBatchSize;
+        save();
+    }
+
+    /**
+     * Gets the pause between two batches of queue cancellations, which paces mass cancellations so that they do not
+     * compete with the queue maintenance
+     * @return The pause in seconds
+     */
+    public Integer getCancellationBatchInterval() {
+        return cancellationBatchInterval;
+    }
+
+    @DataBoundSetter
+    public void setCancellationBatchInterval(Integer cancellationBatchInterval) {
+        if (cancellationBatchInterval == null || cancellationBatchInterval < 0) {
+            cancellationBatchInterval = 0;
+        }
+        this.cancellationBatchInterval = cancellationBatchInterval;
+        save();
+    }
+
+    /**
+     * Gets the number of threads the plugin uses to abort builds and cancel queue items
+     * @return The number of threads
+     */
+    public Integer getActionThreads() {
+        return actionThreads;
+    }
+
+    @DataBoundSetter
+    public void setActionThreads(Integer actionThreads) {
+        if (actionThreads == null || actionThreads < 1) {
+            actionThreads = 1;
+        }
+        this.actionThreads = actionThreads;
+        save();
+    }
+
+    /**
+     * Gets the number of actions allowed to wait for a thread. Further actions are deferred until the backlog drains
+     * @return The capacity of the action queue
+     */
+    public Integer getActionQueueCapacity() {
+        return actionQueueCapacity;
+    }
+
+    @DataBoundSetter
+    public void setActionQueueCapacity(Integer actionQueueCapacity) {
+        if (actionQueueCapacity == null || actionQueueCapacity < 1) {
+            actionQueueCapacity = 1;
+        }
+        this.actionQueueCapacity = actionQueueCapacity;
+        save();
+    }
+
+    /**
+     * Gets the shortest pause between two queue sweeps. Sweeps are scheduled at the next queue deadline, but never
+     * closer together than this
+     * @return The interval in seconds
+     */
+    public Integer getSweepMinInterval() {
+        return sweepMinInterval;
+    }
+
+    @DataBoundSetter
+    public void setSweepMinInterval(Integer sweepMinInterval) {
+        if (sweepMinInterval == null || sweepMinInterval < 1) {
+            sweepMinInterval = 1;
+        }
+        this.sweepMinInterval = sweepMinInterval;
+        save();
+    }
+
+    /**
+     * Gets the longest pause between two queue sweeps while items are queued, so that a changed timeout is picked up
+     * even if the next deadline is far away. No sweep runs while the queue is empty
+     * @return The interval in seconds
+     */
+    public Integer getSweepMaxInterval() {
+        return sweepMaxInterval;
+    }
+
+    @DataBoundSetter
+    public void setSweepMaxInterval(Integer sweepMaxInterval) {
+        if (sweepMaxInterval == null || sweepMaxInterval < 1) {
+            sweepMaxInterval = 1;
+        }
+        this.sweepMaxInterval = sweepMaxInterval;
+        save();
+    }
+
+    /**
+     * Gets the queue length at which the plugin starts cancelling queue items to relieve the queue (see
+     * {@link #getSheddingLowWatermark()})
+     * @return The number of queue items, or 0 if load shedding on the queue length is disabled
+     */
+    public Integer getSheddingHighWatermark() {
+        return sheddingHighWatermark;
+    }
+
+    @DataBoundSetter
+    public void setSheddingHighWatermark(Integer sheddingHighWatermark) {
+        if (sheddingHighWatermark == null || sheddingHighWatermark < 0) {
+            sheddingHighWatermark = 0;
+        }
+        this.sheddingHighWatermark = sheddingHighWatermark;
+        save();
+    }
+
+    /**
+     * Gets the queue length load shedding brings the queue back to once it has started
+     * @return The number of queue items, or 0 to use a share of the high-water mark (see
+     * {@link TimeoutSettings#getSheddingLowWatermark()})
+     */
+    public Integer getSheddingLowWatermark() {
+        return sheddingLowWatermark;
+    }
+
+    @DataBoundSetter
+    public void setSheddingLowWatermark(Integer sheddingLowWatermark) {
+        if (sheddingLowWatermark == null || sheddingLowWatermark < 0) {
+            sheddingLowWatermark = 0;
+        }
+        this.sheddingLowWatermark = sheddingLowWatermark;
+        save();
+    }
+
+    /**
+     * @return The age of the oldest queue item that starts load shedding, e.g. 1h, or null if load shedding on the
+     * queue age is disabled
+     */
+    @CheckForNull
+    public String getSheddingMaxAge() {
+        return TimeoutDuration.normalize(sheddingMaxAge);
+    }
+
+    /**
+     * @param sheddingMaxAge The age of the oldest queue item that starts load shedding (see {@link TimeoutDuration})
+     * @throws IllegalArgumentException if the age is not valid
+     */
+    @DataBoundSetter
+    public void setSheddingMaxAge(String sheddingMaxAge) {
+        this.sheddingMaxAge = TimeoutDuration.normalize(sheddingMaxAge);
+        save();
+    }
+
+    /**
+     * @return The age of the oldest queue item load shedding brings the queue back to, or null to use the maximum age
+     */
+    @CheckForNull
+    public String getSheddingTargetAge() {
+        return TimeoutDuration.normalize(sheddingTargetAge);
+    }
+
+    /**
+     * @param sheddingTargetAge The age of the oldest queue item load shedding brings the queue back to (see
+     * {@link TimeoutDuration})
+     * @throws IllegalArgumentException if the age is not valid
+     */
+    @DataBoundSetter
+    public void setSheddingTargetAge(String sheddingTargetAge) {
+        this.sheddingTargetAge = TimeoutDuration.normalize(sheddingTargetAge);
+        save();
+    }
+
+    public FormValidation doCheckSheddingLowWatermark(@QueryParameter String value,
+                                                      @QueryParameter String sheddingHighWatermark) {
+        try {
+            int low = value.trim().isEmpty() ? 0 : Integer.parseInt(value.trim());
+            int high = sheddingHighWatermark.trim().isEmpty() ? 0 : Integer.parseInt(sheddingHighWatermark.trim());
+            if (high > 0 && low > high) {
+                return FormValidation.error("The low-water mark must not be above the high-water mark");
+            }
+        } catch (NumberFormatException e) {
+            return FormValidation.error("Not a number");
+        }
+        return FormValidation.ok();
+    }
+
+    public FormValidation doCheckSheddingMaxAge(@QueryParameter String value) {
+        return TimeoutDuration.check(value);
+    }
+
+    public FormValidation doCheckSheddingTargetAge(@QueryParameter String value) {
+        return TimeoutDuration.check(value);
+    }
+
+    /**
+     * @return true if tasks whose label no node or cloud can serve are refused instead of entering the queue
+     */
+    public boolean isRejectUnservableLabels() {
+        return rejectUnservableLabels;
+    }
+
+    @DataBoundSetter
+    public void setRejectUnservableLabels(boolean rejectUnservableLabels) {
+        this.rejectUnservableLabels = rejectUnservableLabels;
+        save();
+    }
+
+    /**
+     * Gets the jobs and folders whose tasks are let into the queue even if no agent can serve their label yet, e.g.
+     * because the agents are created on demand. They are still cancelled after the "No such node" queue timeout
+     * @return The full names of the jobs and folders, one per line
+     */
+    @CheckForNull
+    public String getAdmissionAllowlist() {
+        return admissionAllowlist;
+    }
+
+    @DataBoundSetter
+    public void setAdmissionAllowlist(String admissionAllowlist) {
+        this.admissionAllowlist = admissionAllowlist == null || admissionAllowlist.trim().isEmpty()
+                ? null : admissionAllowlist.trim();
+        save();
+    }
+
+    /**
+     * @return The timeout policies per folder, label and job type
+     */
+    @Nonnull
+    public List<TimeoutPolicyRule> getPolicyRules() {
+        return policyRules == null ? Collections.emptyList() : Collections.unmodifiableList(policyRules);
+    }
+
+    @DataBoundSetter
+    public void setPolicyRules(List<TimeoutPolicyRule> policyRules) {
+        this.policyRules = policyRules == null ? new ArrayList<>() : new ArrayList<>(policyRules);
+        save();
+    }
+
+    /**
+     * @return The compiled timeout policies as last saved, used to resolve the timeout of a build
+     */
+    @Nonnull
+    public TimeoutPolicy getPolicy() {
+        return settings().getPolicy();
     }
 }
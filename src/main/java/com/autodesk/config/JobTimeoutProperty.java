@@ -3,14 +3,18 @@ package com.autodesk.config;
 import hudson.Extension;
 import hudson.model.Job;
 import hudson.model.JobProperty;
+import hudson.util.FormValidation;
 import jenkins.model.OptionalJobProperty;
 import net.sf.json.JSONObject;
 import org.jenkinsci.Symbol;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 /**
@@ -18,31 +22,123 @@ import javax.annotation.Nonnull;
  */
 @Restricted(NoExternalUse.class)
 public class JobTimeoutProperty extends OptionalJobProperty<Job<?,?>> implements TimeoutConfig {
-    Integer buildTimeout;
+    String buildTimeout;  // a TimeoutDuration setting. older jobs hold a plain number of minutes
+    private String nodeTimeout;  // limit of each pipeline node block
+    private String stageTimeout;  // limit of each pipeline stage block
 
     @DataBoundConstructor
+    public JobTimeoutProperty() {
+    }
+
+    /**
+     * @param buildTimeout The build timeout in minutes
+     * @deprecated use {@link #JobTimeoutProperty()} and {@link #setBuildTimeoutDuration(String)}
+     */
+    @Deprecated
     public JobTimeoutProperty(Integer buildTimeout) {
-        if (buildTimeout < 0) {
-            this.buildTimeout = 0;
-        } else {
-            this.buildTimeout = buildTimeout;
-        }
+        this.buildTimeout = TimeoutDuration.fromMinutes(buildTimeout);
     }
 
+    /**
+     * @return The build timeout in whole minutes, rounded down (see {@link #getBuildTimeoutMillis()})
+     * @deprecated use {@link #getBuildTimeoutDuration()}
+     */
+    @Deprecated
     @Override
     public Integer getBuildTimeout() {
-        return this.buildTimeout;
+        return TimeoutDuration.toMinutes(this.buildTimeout);
     }
 
+    /**
+     * Kept so that older jobs and scripts, e.g. {@code jobTimeoutProperty(buildTimeout: 5)}, still bind. Deprecated so
+     * that exports only carry {@link #getBuildTimeoutDuration()}
+     * @param buildTimeout The build timeout in minutes
+     * @deprecated use {@link #setBuildTimeoutDuration(String)}
+     */
+    @Deprecated
+    @DataBoundSetter
     @Override
     public void setBuildTimeout(Integer buildTimeout) {
-        this.buildTimeout = buildTimeout;
+        this.buildTimeout = TimeoutDuration.fromMinutes(buildTimeout);
+    }
+
+    /**
+     * @return The build timeout setting, e.g. 1m30s
+     */
+    @CheckForNull
+    public String getBuildTimeoutDuration() {
+        return TimeoutDuration.normalize(this.buildTimeout);
+    }
+
+    /**
+     * Sets the build timeout with second precision. Overrides the timeout set by {@link #setBuildTimeout(Integer)}
+     * @param buildTimeoutDuration The build timeout, e.g. 90s or 2m30s (see {@link TimeoutDuration})
+     * @throws IllegalArgumentException if the timeout is not valid
+     */
+    @DataBoundSetter
+    public void setBuildTimeoutDuration(String buildTimeoutDuration) {
+        String normalized = TimeoutDuration.normalize(buildTimeoutDuration);
+        if (normalized != null) {
+            this.buildTimeout = normalized;
+        }
+    }
+
+    /**
+     * @return The build timeout in milliseconds, or 0 if there is no timeout
+     */
+    @Override
+    public long getBuildTimeoutMillis() {
+        return TimeoutDuration.toMillis(this.buildTimeout);
+    }
+
+    @CheckForNull
+    public String getNodeTimeout() {
+        return nodeTimeout;
+    }
+
+    /**
+     * @param nodeTimeout The limit of each {@code node} block of the pipeline (see {@link TimeoutDuration})
+     * @throws IllegalArgumentException if the timeout is not valid
+     */
+    @DataBoundSetter
+    public void setNodeTimeout(String nodeTimeout) {
+        this.nodeTimeout = TimeoutDuration.normalize(nodeTimeout);
+    }
+
+    /**
+     * @return The node block timeout in milliseconds, or 0 if there is no timeout
+     */
+    public long getNodeTimeoutMillis() {
+        return TimeoutDuration.toMillis(nodeTimeout);
+    }
+
+    @CheckForNull
+    public String getStageTimeout() {
+        return stageTimeout;
+    }
+
+    /**
+     * @param stageTimeout The limit of each {@code stage} block of the pipeline (see {@link TimeoutDuration})
+     * @throws IllegalArgumentException if the timeout is not valid
+     */
+    @DataBoundSetter
+    public void setStageTimeout(String stageTimeout) {
+        this.stageTimeout = TimeoutDuration.normalize(stageTimeout);
+    }
+
+    /**
+     * @return The stage block timeout in milliseconds, or 0 if there is no timeout
+     */
+    public long getStageTimeoutMillis() {
+        return TimeoutDuration.toMillis(stageTimeout);
     }
 
     @Extension
     @Symbol("jobTimeoutProperty")
     public static class DescriptorImpl extends OptionalJobPropertyDescriptor {
 
+        private static final String[] TIMEOUT_FIELDS = {"buildTimeoutDuration", "nodeTimeout", "stageTimeout"};
+
         @Nonnull
         @Override
         public String getDisplayName() {
@@ -51,7 +147,27 @@ public class JobTimeoutProperty extends OptionalJobProperty<Job<?,?>> implements
 
         @Override
         public JobProperty<?> newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+            // checked one by one, so that an invalid timeout is reported against its own field
+            for (String field : TIMEOUT_FIELDS) {
+                try {
+                    TimeoutDuration.parse(formData.optString(field, null));
+                } catch (IllegalArgumentException e) {
+                    throw new FormException(e.getMessage(), e, field);
+                }
+            }
             return super.newInstance(req, formData);
         }
+
+        public FormValidation doCheckBuildTimeoutDuration(@QueryParameter String value) {
+            return TimeoutDuration.check(value);
+        }
+
+        public FormValidation doCheckNodeTimeout(@QueryParameter String value) {
+            return TimeoutDuration.check(value);
+        }
+
+        public FormValidation doCheckStageTimeout(@QueryParameter String value) {
+            return TimeoutDuration.check(value);
+        }
     }
 }
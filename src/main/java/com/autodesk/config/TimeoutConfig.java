@@ -2,6 +2,9 @@ package com.autodesk.config;
 
 public interface TimeoutConfig {
 
+    @Deprecated
     Integer getBuildTimeout();
+    @Deprecated
     void setBuildTimeout(Integer buildTimeout);
+    long getBuildTimeoutMillis();
 }
@@ -0,0 +1,161 @@
+package com.autodesk.config;
+
+import hudson.util.FormValidation;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses and formats the timeout settings. A timeout is written as a sequence of hours, minutes and seconds such as
+ * {@code 90s}, {@code 2m30s} or {@code 1h}. A plain number is a number of minutes, which is how timeouts were
+ * configured before second precision was supported, so existing settings keep their meaning. Timeouts are capped at
+ * {@link #MAX}, so that any timeout converts to milliseconds and can be added to the current time.
+ */
+public final class TimeoutDuration {
+
+    private static final Pattern MINUTES = Pattern.compile("\\d+");
+    /**
+     * The longest timeout, as many minutes as the minute-based settings can hold
+     */
+    public static final Duration MAX = Duration.ofMinutes(Integer.MAX_VALUE);
+
+    private static final Pattern DURATION = Pattern.compile("(?:(\\d+)h)?(?:(\\d+)m)?(?:(\\d+)s)?");
+
+    private TimeoutDuration() {
+    }
+
+    /**
+     * @param text A timeout setting
+     * @return The timeout, or null if the setting is empty
+     * @throws IllegalArgumentException if the setting is not a valid timeout
+     */
+    @CheckForNull
+    public static Duration parse(@CheckForNull String text) {
+        if (text == null) {
+            return null;
+        }
+        String value = text.replaceAll("\\s", "").toLowerCase(Locale.ENGLISH);
+        if (value.isEmpty()) {
+            return null;
+        }
+        if (MINUTES.matcher(value).matches()) {
+            return cap(() -> Duration.ofMinutes(Long.parseLong(value)));
+        }
+        Matcher matcher = DURATION.matcher(value);
+        if (matcher.matches()) {
+            return cap(() -> Duration.ofHours(group(matcher, 1))
+                    .plusMinutes(group(matcher, 2))
+                    .plusSeconds(group(matcher, 3)));
+        }
+        throw new IllegalArgumentException("Invalid timeout '" + text + "', expected a duration such as 90s, 2m30s "
+                + "or 1h, or a number of minutes");
+    }
+
+    /**
+     * @param duration Computes a timeout, may overflow
+     * @return The timeout, at most {@link #MAX}
+     */
+    private static Duration cap(Supplier<Duration> duration) {
+        try {
+            Duration value = duration.get();
+            return value.compareTo(MAX) > 0 ? MAX : value;
+        } catch (NumberFormatException | ArithmeticException e) {  // more digits or units than a long holds
+            return MAX;
+        }
+    }
+
+    private static long group(Matcher matcher, int group) {
+        String digits = matcher.group(group);
+        return digits == null ? 0 : Long.parseLong(digits);
+    }
+
+    /**
+     * @param text A timeout setting
+     * @return The timeout in milliseconds, or 0 if the setting is empty
+     * @throws IllegalArgumentException if the setting is not a valid timeout
+     */
+    public static long toMillis(@CheckForNull String text) {
+        Duration duration = parse(text);
+        return duration == null ? 0 : duration.toMillis();
+    }
+
+    /**
+     * @param duration A timeout
+     * @return The timeout written with the largest units, e.g. {@code 1m30s} for 90 seconds
+     */
+    @Nonnull
+    public static String format(@Nonnull Duration duration) {
+        long seconds = duration.getSeconds();
+        if (seconds <= 0) {
+            return "0";
+        }
+        StringBuilder text = new StringBuilder();
+        append(text, seconds / 3600, 'h');
+        append(text, seconds / 60 % 60, 'm');
+        append(text, seconds % 60, 's');
+        return text.toString();
+    }
+
+    private static void append(StringBuilder text, long value, char unit) {
+        if (value > 0) {
+            text.append(value).append(unit);
+        }
+    }
+
+    /**
+     * Validates a timeout setting entered on a configuration form
+     * @param text A timeout setting
+     * @return An error if the setting is not a valid timeout
+     */
+    @Nonnull
+    static FormValidation check(@CheckForNull String text) {
+        try {
+            Duration duration = parse(text);
+            if (MAX.equals(duration)) {
+                return FormValidation.warning("Timeouts are capped at " + format(MAX));
+            }
+            return FormValidation.ok();
+        } catch (IllegalArgumentException e) {
+            return FormValidation.error(e.getMessage());
+        }
+    }
+
+    /**
+     * @param minutes A timeout in minutes
+     * @return The timeout setting, or null if no timeout is given
+     */
+    @CheckForNull
+    static String fromMinutes(@CheckForNull Integer minutes) {
+        if (minutes == null) {
+            return null;
+        }
+        return format(Duration.ofMinutes(Math.max(0, minutes)));
+    }
+
+    /**
+     * @param text A timeout setting
+     * @return The timeout in whole minutes, rounded down, or null if the setting is empty
+     */
+    @CheckForNull
+    static Integer toMinutes(@CheckForNull String text) {
+        Duration duration = parse(text);
+        return duration == null ? null : (int) Math.min(Integer.MAX_VALUE, duration.toMinutes());
+    }
+
+    /**
+     * Normalizes a timeout setting
+     * @param text A timeout setting
+     * @return The setting written with the largest units, or null if the setting is empty
+     * @throws IllegalArgumentException if the setting is not a valid timeout
+     */
+    @CheckForNull
+    static String normalize(@CheckForNull String text) {
+        Duration duration = parse(text);
+        return duration == null ? null : format(duration);
+    }
+}
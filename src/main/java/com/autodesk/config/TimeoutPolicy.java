@@ -0,0 +1,204 @@
+package com.autodesk.config;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Immutable, compiled form of the {@link TimeoutPolicyRule}s. Folder rules are stored in a trie of path segments, label
+ * and job type rules in hash maps, so resolving the timeout of a build costs O(folder depth + labels) no matter how
+ * many rules are configured.
+ *
+ * A folder rule applies to the whole subtree and the deepest folder wins. Folder rules take precedence over label
+ * rules, which take precedence over job type rules. If several labels of the agent have a rule, the shortest timeout
+ * applies. The {@code node} and {@code stage} block timeouts of folder rules are resolved the same way as their build
+ * timeouts, independently of each other.
+ */
+public final class TimeoutPolicy {
+
+    /**
+     * A folder of the trie
+     */
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        long timeoutMillis;  // 0 if no rule is configured for this folder
+        long nodeTimeoutMillis;
+        long stageTimeoutMillis;
+    }
+
+    private final Node root = new Node();
+    private final Map<String, Long> labels = new HashMap<>();
+    private final Map<String, Long> jobTypes = new HashMap<>();
+    private final int size;
+
+    private TimeoutPolicy(List<TimeoutPolicyRule> rules) {
+        int count = 0;
+        for (TimeoutPolicyRule rule : rules) {
+            long timeoutMillis = rule.getTimeoutMillis();
+            if (rule.getKey().isEmpty()) {
+                continue;
+            }
+            switch (rule.getScope()) {
+                case FOLDER:
+                    long nodeTimeoutMillis = rule.getNodeTimeoutMillis();
+                    long stageTimeoutMillis = rule.getStageTimeoutMillis();
+                    if (timeoutMillis <= 0 && nodeTimeoutMillis <= 0 && stageTimeoutMillis <= 0) {
+                        continue;
+                    }
+                    Node node = root;
+                    for (String segment : rule.getKey().split("/")) {
+                        if (!segment.isEmpty()) {
+                            node = node.children.computeIfAbsent(segment, s -> new Node());
+                        }
+                    }
+                    node.timeoutMillis = timeoutMillis;
+                    node.nodeTimeoutMillis = nodeTimeoutMillis;
+                    node.stageTimeoutMillis = stageTimeoutMillis;
+                    break;
+                case LABEL:
+                    if (timeoutMillis <= 0) {
+                        continue;
+                    }
+                    labels.put(rule.getKey(), timeoutMillis);
+                    break;
+                case JOB_TYPE:
+                    if (timeoutMillis <= 0) {
+                        continue;
+                    }
+                    jobTypes.put(rule.getKey(), timeoutMillis);
+                    break;
+                default:
+                    continue;
+            }
+            count++;
+        }
+        this.size = count;
+    }
+
+    /**
+     * @param rules The configured rules. Later rules replace earlier rules with the same scope and key
+     * @return The compiled policy
+     */
+    @Nonnull
+    public static TimeoutPolicy compile(@CheckForNull List<TimeoutPolicyRule> rules) {
+        return new TimeoutPolicy(rules == null ? Collections.emptyList() : rules);
+    }
+
+    /**
+     * @return The number of rules in effect
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Resolves the timeout of a build from the rules
+     * @param jobFullName The full name of the job, e.g. {@code team/service/build}
+     * @param labelAtoms The labels of the agent the build runs on
+     * @param jobType The class of the job
+     * @return The timeout in milliseconds, or 0 if no rule applies
+     */
+    public long resolve(@Nonnull String jobFullName, @Nonnull Collection<String> labelAtoms, @Nonnull Class<?> jobType) {
+        long timeoutMillis = resolveFolder(jobFullName);
+        if (timeoutMillis > 0) {
+            return timeoutMillis;
+        }
+        timeoutMillis = resolveLabels(labelAtoms);
+        if (timeoutMillis > 0) {
+            return timeoutMillis;
+        }
+        return resolveJobType(jobType);
+    }
+
+    /**
+     * @return true if the timeout of a build depends on the agent it runs on
+     */
+    public boolean hasLabelRules() {
+        return !labels.isEmpty();
+    }
+
+    /**
+     * @param labelAtoms The labels of an agent
+     * @return The shortest timeout of the labels that have a rule, or 0
+     */
+    public long resolveLabels(@Nonnull Collection<String> labelAtoms) {
+        long timeoutMillis = 0;
+        if (!labels.isEmpty()) {
+            for (String labelAtom : labelAtoms) {
+                Long labelTimeout = labels.get(labelAtom);
+                if (labelTimeout != null && (timeoutMillis == 0 || labelTimeout < timeoutMillis)) {
+                    timeoutMillis = labelTimeout;
+                }
+            }
+        }
+        return timeoutMillis;
+    }
+
+    /**
+     * @param jobType The class of a job
+     * @return The timeout of the job class or its closest superclass that has a rule, or 0
+     */
+    public long resolveJobType(@Nonnull Class<?> jobType) {
+        if (!jobTypes.isEmpty()) {
+            for (Class<?> type = jobType; type != null; type = type.getSuperclass()) {
+                Long typeTimeout = jobTypes.get(type.getSimpleName());
+                if (typeTimeout == null) {
+                    typeTimeout = jobTypes.get(type.getName());
+                }
+                if (typeTimeout != null) {
+                    return typeTimeout;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param jobFullName The full name of a job
+     * @return The timeout of the deepest folder containing the job that has a rule, or 0
+     */
+    public long resolveFolder(@Nonnull String jobFullName) {
+        return resolveFolder(jobFullName, node -> node.timeoutMillis);
+    }
+
+    /**
+     * @param jobFullName The full name of a pipeline job
+     * @return The {@code node} block timeout of the deepest folder containing the job that has one, or 0
+     */
+    public long resolveFolderNodeTimeout(@Nonnull String jobFullName) {
+        return resolveFolder(jobFullName, node -> node.nodeTimeoutMillis);
+    }
+
+    /**
+     * @param jobFullName The full name of a pipeline job
+     * @return The {@code stage} block timeout of the deepest folder containing the job that has one, or 0
+     */
+    public long resolveFolderStageTimeout(@Nonnull String jobFullName) {
+        return resolveFolder(jobFullName, node -> node.stageTimeoutMillis);
+    }
+
+    private long resolveFolder(String jobFullName, ToLongFunction<Node> field) {
+        long timeoutMillis = 0;
+        Node node = root;
+        int start = 0;
+        int end;
+        // the last segment is the job itself
+        while (!node.children.isEmpty() && (end = jobFullName.indexOf('/', start)) >= 0) {
+            node = node.children.get(jobFullName.substring(start, end));
+            if (node == null) {
+                break;
+            }
+            long folderMillis = field.applyAsLong(node);
+            if (folderMillis > 0) {
+                timeoutMillis = folderMillis;
+            }
+            start = end + 1;
+        }
+        return timeoutMillis;
+    }
+}
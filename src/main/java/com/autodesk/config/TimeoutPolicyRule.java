@@ -0,0 +1,142 @@
+package com.autodesk.config;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A build timeout that applies to every job of a folder subtree, to every build running on an agent with a label, or
+ * to every job of a type. Folder rules may also limit each {@code node} and {@code stage} block of the pipelines in the
+ * folder. Rules are configured globally and compiled into a {@link TimeoutPolicy}.
+ */
+public class TimeoutPolicyRule extends AbstractDescribableImpl<TimeoutPolicyRule> {
+
+    /**
+     * What the key of a rule is matched against
+     */
+    public enum Scope {
+        /** The full name of a folder, e.g. {@code team/service}. Applies to all jobs below it */
+        FOLDER,
+        /** A label atom of the agent the build runs on. For pipelines, each {@code node} block on such an agent */
+        LABEL,
+        /** The class name of the job, e.g. {@code FreeStyleProject} or {@code WorkflowJob} */
+        JOB_TYPE
+    }
+
+    private final Scope scope;
+    private final String key;
+    private final String timeout;  // a TimeoutDuration setting
+    private String nodeTimeout;  // limit of each pipeline node block, folder rules only
+    private String stageTimeout;  // limit of each pipeline stage block, folder rules only
+
+    /**
+     * @param scope What the key is matched against
+     * @param key The folder full name, label atom or job class name
+     * @param timeout The build timeout, e.g. 90s or 2m30s (see {@link TimeoutDuration})
+     * @throws IllegalArgumentException if the timeout is not valid
+     */
+    @DataBoundConstructor
+    public TimeoutPolicyRule(Scope scope, String key, String timeout) {
+        this.scope = scope == null ? Scope.FOLDER : scope;
+        this.key = key == null ? "" : key.trim();
+        this.timeout = TimeoutDuration.normalize(timeout);
+    }
+
+    public Scope getScope() {
+        return scope;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return The timeout in milliseconds, or 0 if there is no timeout
+     */
+    public long getTimeoutMillis() {
+        return TimeoutDuration.toMillis(timeout);
+    }
+
+    public String getNodeTimeout() {
+        return nodeTimeout;
+    }
+
+    /**
+     * @param nodeTimeout The limit of each {@code node} block of the pipelines in the folder (see
+     * {@link TimeoutDuration})
+     * @throws IllegalArgumentException if the timeout is not valid
+     */
+    @DataBoundSetter
+    public void setNodeTimeout(String nodeTimeout) {
+        this.nodeTimeout = TimeoutDuration.normalize(nodeTimeout);
+    }
+
+    /**
+     * @return The node block timeout in milliseconds, or 0 if there is no timeout
+     */
+    public long getNodeTimeoutMillis() {
+        return TimeoutDuration.toMillis(nodeTimeout);
+    }
+
+    public String getStageTimeout() {
+        return stageTimeout;
+    }
+
+    /**
+     * @param stageTimeout The limit of each {@code stage} block of the pipelines in the folder (see
+     * {@link TimeoutDuration})
+     * @throws IllegalArgumentException if the timeout is not valid
+     */
+    @DataBoundSetter
+    public void setStageTimeout(String stageTimeout) {
+        this.stageTimeout = TimeoutDuration.normalize(stageTimeout);
+    }
+
+    /**
+     * @return The stage block timeout in milliseconds, or 0 if there is no timeout
+     */
+    public long getStageTimeoutMillis() {
+        return TimeoutDuration.toMillis(stageTimeout);
+    }
+
+    @Extension
+    @Symbol("timeoutPolicy")
+    public static class DescriptorImpl extends Descriptor<TimeoutPolicyRule> {
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "Timeout policy";
+        }
+
+        public FormValidation doCheckKey(@QueryParameter String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return FormValidation.error("A folder, label or job type is required");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckTimeout(@QueryParameter String value) {
+            return TimeoutDuration.check(value);
+        }
+
+        public FormValidation doCheckNodeTimeout(@QueryParameter String value) {
+            return TimeoutDuration.check(value);
+        }
+
+        public FormValidation doCheckStageTimeout(@QueryParameter String value) {
+            return TimeoutDuration.check(value);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.autodesk.config;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable snapshot of the {@link GlobalTimeoutConfig}, published through a volatile reference every time the
+ * configuration is saved (see {@link GlobalTimeoutConfig#settings()}). Readers on the hot paths get a consistent view
+ * of all the settings with a single read, and never see a configuration that is only partially updated.
+ */
+public final class TimeoutSettings {
+
+    // low-water mark used when only the high-water mark is set, as a percentage of it
+    static final int DEFAULT_LOW_WATERMARK_PERCENT = 90;
+
+    private final long buildTimeoutMillis;
+    private final double adaptiveTimeoutFactor;
+    private final int adaptiveTimeoutMinBuilds;
+    private final String logInactivityTimeout;
+    private final long logInactivityTimeoutMillis;
+    private final String queueTimeout;
+    private final long queueTimeoutMillis;
+    private final String noSuchNodeQueueTimeout;
+    private final long noSuchNodeQueueTimeoutMillis;
+    private final long gracePeriodMillis;
+    private final int cancellationBatchSize;
+    private final long cancellationBatchIntervalMillis;
+    private final int actionThreads;
+    private final int actionQueueCapacity;
+    private final long sweepMinIntervalMillis;
+    private final long sweepMaxIntervalMillis;
+    private final TimeoutPolicy policy;
+    private final int sheddingHighWatermark;
+    private final int sheddingLowWatermark;
+    private final long sheddingMaxAgeMillis;
+    private final long sheddingTargetAgeMillis;
+    private final boolean rejectUnservableLabels;
+    private final Set<String> admissionAllowlist;
+
+    /**
+     * The settings of a configuration that was never saved, used while the configuration is not loaded
+     */
+    static final TimeoutSettings DEFAULTS = new TimeoutSettings();
+
+    private TimeoutSettings() {
+        this.buildTimeoutMillis = 0;
+        this.adaptiveTimeoutFactor = 0;
+        this.adaptiveTimeoutMinBuilds = GlobalTimeoutConfig.DEFAULT_ADAPTIVE_TIMEOUT_MIN_BUILDS;
+        this.logInactivityTimeout = null;
+        this.logInactivityTimeoutMillis = 0;
+        this.queueTimeout = null;
+        this.queueTimeoutMillis = 0;
+        this.noSuchNodeQueueTimeout = null;
+        this.noSuchNodeQueueTimeoutMillis = 0;
+        this.gracePeriodMillis = TimeUnit.SECONDS.toMillis(GlobalTimeoutConfig.DEFAULT_GRACE_PERIOD);
+        this.cancellationBatchSize = GlobalTimeoutConfig.DEFAULT_CANCELLATION_BATCH_SIZE;
+        this.cancellationBatchIntervalMillis =
+                TimeUnit.SECONDS.toMillis(GlobalTimeoutConfig.DEFAULT_CANCELLATION_BATCH_INTERVAL);
+        this.actionThreads = GlobalTimeoutConfig.DEFAULT_ACTION_THREADS;
+        this.actionQueueCapacity = GlobalTimeoutConfig.DEFAULT_ACTION_QUEUE_CAPACITY;
+        this.sweepMinIntervalMillis = TimeUnit.SECONDS.toMillis(GlobalTimeoutConfig.DEFAULT_SWEEP_MIN_INTERVAL);
+        this.sweepMaxIntervalMillis = TimeUnit.SECONDS.toMillis(GlobalTimeoutConfig.DEFAULT_SWEEP_MAX_INTERVAL);
+        this.policy = TimeoutPolicy.compile(null);
+        this.sheddingHighWatermark = 0;
+        this.sheddingLowWatermark = 0;
+        this.sheddingMaxAgeMillis = 0;
+        this.sheddingTargetAgeMillis = 0;
+        this.rejectUnservableLabels = false;
+        this.admissionAllowlist = Collections.emptySet();
+    }
+
+    TimeoutSettings(@Nonnull GlobalTimeoutConfig config) {
+        this.buildTimeoutMillis = config.getBuildTimeoutMillis();
+        this.adaptiveTimeoutFactor = config.getAdaptiveTimeoutFactor();
+        this.adaptiveTimeoutMinBuilds = config.getAdaptiveTimeoutMinBuilds();
+        this.logInactivityTimeout = config.getLogInactivityTimeout();
+        this.logInactivityTimeoutMillis = config.getLogInactivityTimeoutMillis();
+        this.queueTimeout = config.getQueueTimeoutDuration();
+        this.queueTimeoutMillis = config.getQueueTimeoutMillis();
+        this.noSuchNodeQueueTimeout = config.getNoSuchNodeQueueTimeoutDuration();
+        this.noSuchNodeQueueTimeoutMillis = config.getNoSuchNodeQueueTimeoutMillis();
+        this.gracePeriodMillis = TimeUnit.SECONDS.toMillis(config.getGracePeriod());
+        this.cancellationBatchSize = config.getCancellationBatchSize();
+        this.cancellationBatchIntervalMillis = TimeUnit.SECONDS.toMillis(config.getCancellationBatchInterval());
+        this.actionThreads = config.getActionThreads();
+        this.actionQueueCapacity = config.getActionQueueCapacity();
+        this.sweepMinIntervalMillis = TimeUnit.SECONDS.toMillis(config.getSweepMinInterval());
+        this.sweepMaxIntervalMillis = Math.max(sweepMinIntervalMillis,
+                TimeUnit.SECONDS.toMillis(config.getSweepMaxInterval()));
+        this.policy = TimeoutPolicy.compile(config.getPolicyRules());
+        this.sheddingHighWatermark = config.getSheddingHighWatermark();
+        int lowWatermark = config.getSheddingLowWatermark();
+        this.sheddingLowWatermark = lowWatermark > 0 ? Math.min(sheddingHighWatermark, lowWatermark)
+                : sheddingHighWatermark - sheddingHighWatermark * (100 - DEFAULT_LOW_WATERMARK_PERCENT) / 100;
+        this.sheddingMaxAgeMillis = TimeoutDuration.toMillis(config.getSheddingMaxAge());
+        long targetAgeMillis = TimeoutDuration.toMillis(config.getSheddingTargetAge());
+        this.sheddingTargetAgeMillis = targetAgeMillis > 0 && targetAgeMillis < sheddingMaxAgeMillis
+                ? targetAgeMillis : sheddingMaxAgeMillis;
+        this.rejectUnservableLabels = config.isRejectUnservableLabels();
+        this.admissionAllowlist = parseAllowlist(config.getAdmissionAllowlist());
+    }
+
+    private static Set<String> parseAllowlist(@CheckForNull String text) {
+        if (text == null) {
+            return Collections.emptySet();
+        }
+        Set<String> names = new HashSet<>();
+        for (String line : text.split("\\r?\\n")) {
+            String name = line.trim();
+            while (name.endsWith("/")) {
+                name = name.substring(0, name.length() - 1);
+            }
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * @return The global build timeout in milliseconds, or 0 if there is no timeout
+     */
+    public long getBuildTimeoutMillis() {
+        return buildTimeoutMillis;
+    }
+
+    /**
+     * @return The multiple of the 95th percentile of recent successful build durations used as the build timeout, or
+     * 0 if adaptive timeouts are disabled
+     */
+    public double getAdaptiveTimeoutFactor() {
+        return adaptiveTimeoutFactor;
+    }
+
+    /**
+     * @return The number of successful builds a job needs before its adaptive timeout applies
+     */
+    public int getAdaptiveTimeoutMinBuilds() {
+        return adaptiveTimeoutMinBuilds;
+    }
+
+    /**
+     * @return The log inactivity timeout setting, e.g. 30m, or null if it is not set
+     */
+    @CheckForNull
+    public String getLogInactivityTimeout() {
+        return logInactivityTimeout;
+    }
+
+    /**
+     * @return The time a build may go without log output in milliseconds, or 0 if there is no timeout
+     */
+    public long getLogInactivityTimeoutMillis() {
+        return logInactivityTimeoutMillis;
+    }
+
+    /**
+     * @return The queue timeout setting, e.g. 1m30s
+     */
+    @CheckForNull
+    public String getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    /**
+     * @return The queue timeout in milliseconds, or 0 if there is no timeout
+     */
+    public long getQueueTimeoutMillis() {
+        return queueTimeoutMillis;
+    }
+
+    /**
+     * @return The "No such node" queue timeout setting, e.g. 1m30s, or null if it is not set
+     */
+    @CheckForNull
+    public String getNoSuchNodeQueueTimeout() {
+        return noSuchNodeQueueTimeout;
+    }
+
+    /**
+     * @return The "No such node" queue timeout in milliseconds, or 0 if there is no timeout
+     */
+    public long getNoSuchNodeQueueTimeoutMillis() {
+        return noSuchNodeQueueTimeoutMillis;
+    }
+
+    /**
+     * @return The time between two steps of a build abort in milliseconds
+     */
+    public long getGracePeriodMillis() {
+        return gracePeriodMillis;
+    }
+
+    /**
+     * @return The maximum number of queue items cancelled while holding the queue lock once
+     */
+    public int getCancellationBatchSize() {
+        return cancellationBatchSize;
+    }
+
+    /**
+     * @return The pause between two batches of queue cancellations in milliseconds
+     */
+    public long getCancellationBatchIntervalMillis() {
+        return cancellationBatchIntervalMillis;
+    }
+
+    /**
+     * @return The number of threads the plugin uses to abort builds and cancel queue items
+     */
+    public int getActionThreads() {
+        return actionThreads;
+    }
+
+    /**
+     * @return The number of actions allowed to wait for a thread
+     */
+    public int getActionQueueCapacity() {
+        return actionQueueCapacity;
+    }
+
+    /**
+     * @return The shortest pause between two queue sweeps in milliseconds
+     */
+    public long getSweepMinIntervalMillis() {
+        return sweepMinIntervalMillis;
+    }
+
+    /**
+     * @return The longest pause between two queue sweeps in milliseconds, never shorter than the shortest pause
+     */
+    public long getSweepMaxIntervalMillis() {
+        return sweepMaxIntervalMillis;
+    }
+
+    /**
+     * @return The compiled timeout policies
+     */
+    @Nonnull
+    public TimeoutPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return The queue length that starts load shedding, or 0 if load shedding on the queue length is disabled
+     */
+    public int getSheddingHighWatermark() {
+        return sheddingHighWatermark;
+    }
+
+    /**
+     * @return The queue length load shedding brings the queue back to, never above the high-water mark.
+     * {@value #DEFAULT_LOW_WATERMARK_PERCENT}% of the high-water mark if no low-water mark is set
+     */
+    public int getSheddingLowWatermark() {
+        return sheddingLowWatermark;
+    }
+
+    /**
+     * @return The age of the oldest queue item that starts load shedding in milliseconds, or 0 if load shedding on the
+     * queue age is disabled
+     */
+    public long getSheddingMaxAgeMillis() {
+        return sheddingMaxAgeMillis;
+    }
+
+    /**
+     * @return The age of the oldest queue item load shedding brings the queue back to in milliseconds, never above
+     * the maximum age
+     */
+    public long getSheddingTargetAgeMillis() {
+        return sheddingTargetAgeMillis;
+    }
+
+    /**
+     * @return true if either load shedding limit is set
+     */
+    public boolean isLoadSheddingEnabled() {
+        return sheddingHighWatermark > 0 || sheddingMaxAgeMillis > 0;
+    }
+
+    /**
+     * @return true if tasks whose label no node or cloud can serve are refused instead of entering the queue
+     */
+    public boolean isRejectUnservableLabels() {
+        return rejectUnservableLabels;
+    }
+
+    /**
+     * @param jobFullName The full name of a job
+     * @return true if the job or one of its folders is on the admission allowlist
+     */
+    public boolean isAdmissionAllowed(@Nonnull String jobFullName) {
+        if (admissionAllowlist.isEmpty()) {
+            return false;
+        }
+        for (String name = jobFullName; ; name = name.substring(0, name.lastIndexOf('/'))) {
+            if (admissionAllowlist.contains(name)) {
+                return true;
+            }
+            if (name.indexOf('/') < 0) {
+                return false;
+            }
+        }
+    }
+}
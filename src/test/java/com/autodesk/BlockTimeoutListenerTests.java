@@ -0,0 +1,101 @@
+package com.autodesk;
+
+import com.autodesk.config.GlobalTimeoutConfig;
+import com.autodesk.config.JobTimeoutProperty;
+import com.autodesk.config.TimeoutPolicyRule;
+import hudson.model.Result;
+import hudson.model.labels.LabelAtom;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Objects;
+
+/**
+ * Test class for {@link BlockTimeoutListener}
+ */
+public class BlockTimeoutListenerTests {
+
+    @Rule
+    public final JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Test
+    public void testNodeBlockStoppedRunGoesOn() throws Exception {
+        jenkinsRule.createOnlineSlave();
+        WorkflowJob workflowJob = jenkinsRule.createProject(WorkflowJob.class);
+        JobTimeoutProperty property = new JobTimeoutProperty(null);
+        property.setNodeTimeout("2s");
+        workflowJob.addProperty(property);
+        workflowJob.setDefinition(new CpsFlowDefinition(
+                "try { node { sleep 60 } } catch (e) { echo 'node block stopped' }\n" +
+                "echo 'run still alive'", false));
+
+        long start = System.currentTimeMillis();
+        WorkflowRun workflowRun = Objects.requireNonNull(workflowJob.scheduleBuild2(0)).get();
+        jenkinsRule.assertBuildStatus(Result.SUCCESS, workflowRun);
+        jenkinsRule.assertLogContains("node block stopped", workflowRun);
+        jenkinsRule.assertLogContains("run still alive", workflowRun);
+        assertTrue(System.currentTimeMillis() - start < 60000);
+        BlockTimeoutListener listener = BlockTimeoutListener.get();
+        assertNotNull(listener);
+        assertEquals(0, listener.getPendingDeadlineCount());
+    }
+
+    @Test
+    public void testStageInsideNodeStopped() throws Exception {
+        jenkinsRule.createOnlineSlave();
+        WorkflowJob workflowJob = jenkinsRule.createProject(WorkflowJob.class);
+        JobTimeoutProperty property = new JobTimeoutProperty(null);
+        property.setStageTimeout("2s");
+        workflowJob.addProperty(property);
+        // the stage has no node block of its own, so the steps running in it are stopped
+        workflowJob.setDefinition(new CpsFlowDefinition(
+                "node {\n" +
+                "  try { stage('slow') { sleep 60 } } catch (e) { echo 'stage stopped' }\n" +
+                "  echo 'node still alive'\n" +
+                "}", false));
+
+        long start = System.currentTimeMillis();
+        WorkflowRun workflowRun = Objects.requireNonNull(workflowJob.scheduleBuild2(0)).get();
+        jenkinsRule.assertBuildStatus(Result.SUCCESS, workflowRun);
+        jenkinsRule.assertLogContains("stage stopped", workflowRun);
+        jenkinsRule.assertLogContains("node still alive", workflowRun);
+        assertTrue(System.currentTimeMillis() - start < 60000);
+        assertEquals(0, BlockTimeoutListener.get().getPendingDeadlineCount());
+    }
+
+    @Test
+    public void testLabelPolicyLimitsNodeBlocks() throws Exception {
+        jenkinsRule.createOnlineSlave(new LabelAtom("slow-agents"));
+        GlobalTimeoutConfig.get().setPolicyRules(Collections.singletonList(
+                new TimeoutPolicyRule(TimeoutPolicyRule.Scope.LABEL, "slow-agents", "2s")));
+        WorkflowJob workflowJob = jenkinsRule.createProject(WorkflowJob.class);
+        workflowJob.setDefinition(new CpsFlowDefinition(
+                "try { node('slow-agents') { sleep 60 } } catch (e) { echo 'node block stopped' }\n" +
+                "echo 'run still alive'", false));
+
+        long start = System.currentTimeMillis();
+        WorkflowRun workflowRun = Objects.requireNonNull(workflowJob.scheduleBuild2(0)).get();
+        jenkinsRule.assertBuildStatus(Result.SUCCESS, workflowRun);
+        jenkinsRule.assertLogContains("node block stopped", workflowRun);
+        jenkinsRule.assertLogContains("run still alive", workflowRun);
+        assertTrue(System.currentTimeMillis() - start < 60000);
+        assertEquals(0, BlockTimeoutListener.get().getPendingDeadlineCount());
+    }
+
+    @Test
+    public void testDeadlineCancelledWhenBlockEnds() throws Exception {
+        WorkflowJob workflowJob = jenkinsRule.createProject(WorkflowJob.class);
+        JobTimeoutProperty property = new JobTimeoutProperty(null);
+        property.setStageTimeout("10m");
+        workflowJob.addProperty(property);
+        workflowJob.setDefinition(new CpsFlowDefinition("stage('build') { echo 'done' }", false));
+        jenkinsRule.buildAndAssertSuccess(workflowJob);
+        assertEquals(0, BlockTimeoutListener.get().getPendingDeadlineCount());
+    }
+}
@@ -1,9 +1,12 @@
 package com.autodesk;
 
+import com.autodesk.config.GlobalTimeoutConfig;
+import hudson.ExtensionList;
 import hudson.Functions;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.model.Result;
+import hudson.model.listeners.RunListener;
 import hudson.model.queue.QueueTaskFuture;
 import hudson.tasks.BatchFile;
 import hudson.tasks.Shell;
@@ -14,6 +17,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.SleepBuilder;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
@@ -53,7 +57,7 @@ public class BuildTimeoutListenerTests {
         // Aborting freestyle
         BuildTimeoutListener buildTimeoutListener = new BuildTimeoutListener();
         buildTimeoutListener.abortBuild(freeStyleBuild);
-        jenkinsRule.assertBuildStatus(Result.ABORTED, freeStyleBuild);
+        jenkinsRule.assertBuildStatus(Result.ABORTED, jenkinsRule.waitForCompletion(freeStyleBuild));
 }
 
     @Test
@@ -78,7 +82,7 @@ public class BuildTimeoutListenerTests {
         // Aborting pipeline run
         BuildTimeoutListener buildTimeoutListener = new BuildTimeoutListener();
         buildTimeoutListener.abortBuild(workflowRun);
-        jenkinsRule.assertBuildStatus(Result.ABORTED, workflowRun);
+        jenkinsRule.assertBuildStatus(Result.ABORTED, jenkinsRule.waitForCompletion(workflowRun));
     }
 
     @Test
@@ -95,4 +99,88 @@ public class BuildTimeoutListenerTests {
         WorkflowRun workflowRun = Objects.requireNonNull(workflowJob.scheduleBuild2(0)).get();
         jenkinsRule.assertBuildStatus(Result.SUCCESS, workflowRun);
     }
+
+    @Test
+    public void testDeadlineCancelledOnCompletion() throws Exception {
+        GlobalTimeoutConfig.get().setBuildTimeout(5);
+        BuildTimeoutListener buildTimeoutListener = RunListener.all().get(BuildTimeoutListener.class);
+        assertNotNull(buildTimeoutListener);
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        FreeStyleBuild freeStyleBuild = jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        assertFalse(freeStyleBuild.isBuilding());
+        // the deadline of a finished build must not stay in the scheduler
+        assertEquals(0, buildTimeoutListener.getPendingDeadlineCount());
+    }
+
+    @Test
+    public void testRehydrateExecutingBuilds() throws Exception {
+        BuildTimeoutListener buildTimeoutListener = BuildTimeoutListener.get();
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        freeStyleProject.getBuildersList().add(new SleepBuilder(600000));
+        // started without a timeout, like a build whose deadline was lost in a restart
+        FreeStyleBuild freeStyleBuild = Objects.requireNonNull(freeStyleProject.scheduleBuild2(0)).waitForStart();
+        assertEquals(0, buildTimeoutListener.getPendingDeadlineCount());
+
+        GlobalTimeoutConfig.get().setBuildTimeoutDuration("10m");
+        assertEquals(1, buildTimeoutListener.rehydrate());
+        assertEquals(1, buildTimeoutListener.getPendingDeadlineCount());
+        // rehydrating again must not schedule a second deadline
+        assertEquals(0, buildTimeoutListener.rehydrate());
+        assertEquals(1, buildTimeoutListener.getPendingDeadlineCount());
+        freeStyleBuild.doStop();
+        jenkinsRule.waitForCompletion(freeStyleBuild);
+        assertEquals(0, buildTimeoutListener.getPendingDeadlineCount());
+    }
+
+    @Test
+    public void testRehydrateResumedPipeline() throws Exception {
+        BuildTimeoutListener buildTimeoutListener = BuildTimeoutListener.get();
+        WorkflowJob workflowJob = jenkinsRule.createProject(WorkflowJob.class);
+        workflowJob.setDefinition(new CpsFlowDefinition("echo 'started'\nsleep 600", false));
+        WorkflowRun workflowRun = Objects.requireNonNull(workflowJob.scheduleBuild2(0)).waitForStart();
+        jenkinsRule.waitForMessage("started", workflowRun);
+
+        GlobalTimeoutConfig.get().setBuildTimeoutDuration("10m");
+        // pipelines are not scanned, their deadline is rebuilt when they resume
+        assertEquals(0, buildTimeoutListener.rehydrate());
+        assertEquals(0, buildTimeoutListener.getPendingDeadlineCount());
+        ExtensionList.lookupSingleton(BuildTimeoutListener.ResumeListener.class)
+                .onResumed(Objects.requireNonNull(workflowRun.getExecution()));
+        assertEquals(1, buildTimeoutListener.getPendingDeadlineCount());
+        workflowRun.doStop();
+        jenkinsRule.waitForCompletion(workflowRun);
+        assertEquals(0, buildTimeoutListener.getPendingDeadlineCount());
+    }
+
+    @Test
+    public void testRehydrateAbortsOverdueBuilds() throws Exception {
+        BuildTimeoutListener buildTimeoutListener = BuildTimeoutListener.get();
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        freeStyleProject.getBuildersList().add(new SleepBuilder(600000));
+        FreeStyleBuild freeStyleBuild = Objects.requireNonNull(freeStyleProject.scheduleBuild2(0)).waitForStart();
+        Thread.sleep(2000);
+
+        // the build has been running for longer than its timeout
+        GlobalTimeoutConfig.get().setBuildTimeoutDuration("1s");
+        assertEquals(1, buildTimeoutListener.rehydrate());
+        jenkinsRule.assertBuildStatus(Result.ABORTED, jenkinsRule.waitForCompletion(freeStyleBuild));
+    }
+
+    @Test
+    public void testAbortParallelPipeline() throws Exception {
+        WorkflowJob workflowJob = jenkinsRule.createProject(WorkflowJob.class);
+        workflowJob.setDefinition(new CpsFlowDefinition(
+                "parallel one: { node('!master') { sleep 600 } }, two: { node('!master') { sleep 600 } }", false));
+        WorkflowRun workflowRun = Objects.requireNonNull(workflowJob.scheduleBuild2(0)).waitForStart();
+        // the run itself and both node blocks
+        long giveUp = System.currentTimeMillis() + 60000;
+        while (AbortEscalation.executorsOf(workflowRun).size() < 3 && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(500);
+        }
+        assertEquals(3, AbortEscalation.executorsOf(workflowRun).size());
+
+        BuildTimeoutListener.get().abortBuild(workflowRun);
+        jenkinsRule.assertBuildStatus(Result.ABORTED, jenkinsRule.waitForCompletion(workflowRun));
+        assertTrue(AbortEscalation.executorsOf(workflowRun).isEmpty());
+    }
 }
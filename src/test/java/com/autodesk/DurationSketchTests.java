@@ -0,0 +1,62 @@
+package com.autodesk;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link DurationSketch}
+ */
+public class DurationSketchTests {
+
+    @Test
+    public void testEmptySketch() {
+        DurationSketch sketch = new DurationSketch();
+        assertEquals(0, sketch.count());
+        assertEquals(0, sketch.quantile(0.95));
+    }
+
+    @Test
+    public void testQuantileWithinBucketError() {
+        DurationSketch sketch = new DurationSketch();
+        for (int i = 1; i <= 40; i++) {
+            sketch.add(i * 1000L);
+        }
+        long p95 = sketch.quantile(0.95);
+        // the 38th duration, rounded up to its bucket
+        assertTrue(p95 >= 38000);
+        assertTrue(p95 <= 38000 * 1.1);
+        long median = sketch.quantile(0.5);
+        assertTrue(median >= 20000);
+        assertTrue(median <= 20000 * 1.1);
+    }
+
+    @Test
+    public void testOldGenerationsForgotten() {
+        DurationSketch sketch = new DurationSketch();
+        for (int i = 0; i < DurationSketch.GENERATION_SIZE; i++) {
+            sketch.add(3600000);
+        }
+        assertTrue(sketch.quantile(0.95) >= 3600000);
+        // two generations of short builds replace the long ones
+        for (int i = 0; i < 2 * DurationSketch.GENERATION_SIZE; i++) {
+            sketch.add(60000);
+        }
+        assertTrue(sketch.count() <= 2 * DurationSketch.GENERATION_SIZE);
+        assertTrue(sketch.quantile(0.95) < 3600000);
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        DurationSketch sketch = new DurationSketch();
+        for (int i = 0; i < 70; i++) {
+            sketch.add(1000L * (i % 7 + 1));
+        }
+        DurationSketch decoded = DurationSketch.decode(sketch.encode());
+        assertEquals(sketch.count(), decoded.count());
+        assertEquals(sketch.quantile(0.95), decoded.quantile(0.95));
+        assertEquals(sketch.encode(), decoded.encode());
+        // malformed or missing text gives an empty sketch
+        assertEquals(0, DurationSketch.decode("garbage").count());
+        assertEquals(0, DurationSketch.decode(null).count());
+    }
+}
@@ -0,0 +1,91 @@
+package com.autodesk;
+
+import com.autodesk.config.GlobalTimeoutConfig;
+import com.autodesk.config.JobTimeoutProperty;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for {@link JobTimeoutCache}
+ */
+public class JobTimeoutCacheTests {
+
+    @Rule
+    public final JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Test
+    public void testInvalidatedOnJobChange() throws Exception {
+        GlobalTimeoutConfig.get().setBuildTimeout(10);
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject("cached-freestyle");
+        FreeStyleBuild build = jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        JobTimeoutCache cache = JobTimeoutCache.get();
+        assertEquals(TimeUnit.MINUTES.toMillis(10), cache.getTimeoutMillis(build));
+
+        // adding a job property saves the job, which drops the cached timeout
+        freeStyleProject.addProperty(new JobTimeoutProperty(5));
+        assertEquals(TimeUnit.MINUTES.toMillis(5), cache.getTimeoutMillis(build));
+
+        freeStyleProject.renameTo("renamed-freestyle");
+        assertEquals(TimeUnit.MINUTES.toMillis(5), cache.getTimeoutMillis(build));
+        freeStyleProject.delete();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidatedOnGlobalChange() throws Exception {
+        GlobalTimeoutConfig.get().setBuildTimeout(10);
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject("global-freestyle");
+        FreeStyleBuild build = jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        assertEquals(TimeUnit.MINUTES.toMillis(10), JobTimeoutCache.get().getTimeoutMillis(build));
+
+        GlobalTimeoutConfig.get().setBuildTimeoutDuration("90s");
+        assertEquals(TimeUnit.SECONDS.toMillis(90), JobTimeoutCache.get().getTimeoutMillis(build));
+    }
+
+    @Test
+    public void testAdaptiveTimeout() throws Exception {
+        GlobalTimeoutConfig.get().setBuildTimeout(10);
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject("adaptive-freestyle");
+        FreeStyleBuild build = jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        assertEquals(TimeUnit.MINUTES.toMillis(10), JobTimeoutCache.get().getTimeoutMillis(build));
+        // nothing is recorded while adaptive timeouts are disabled
+        assertFalse(new File(freeStyleProject.getRootDir(), BuildDurationHistory.FILE_NAME).exists());
+
+        GlobalTimeoutConfig.get().setAdaptiveTimeoutMinBuilds(2);
+        GlobalTimeoutConfig.get().setAdaptiveTimeoutFactor(3.0);
+        build = jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        // a single build is not enough history
+        assertEquals(TimeUnit.MINUTES.toMillis(10), JobTimeoutCache.get().getTimeoutMillis(build));
+        build = jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        // short builds get the minimum adaptive timeout
+        assertEquals(TimeUnit.MINUTES.toMillis(1), JobTimeoutCache.get().getTimeoutMillis(build));
+        assertTrue(new File(freeStyleProject.getRootDir(), BuildDurationHistory.FILE_NAME).exists());
+    }
+
+    @Test
+    public void testDurationHistoryDroppedOnRenameAndDelete() throws Exception {
+        GlobalTimeoutConfig.get().setAdaptiveTimeoutFactor(3.0);
+        BuildDurationHistory history = BuildDurationHistory.get();
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject("history-freestyle");
+        jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        int size = history.size();
+        assertTrue(size > 0);
+
+        freeStyleProject.renameTo("renamed-freestyle");
+        assertEquals(size - 1, history.size());
+        // the sketch is read back from the file that moved with the job
+        assertTrue(new File(freeStyleProject.getRootDir(), BuildDurationHistory.FILE_NAME).exists());
+        history.getQuantileMillis(freeStyleProject, 0.95, 1);
+        assertEquals(size, history.size());
+
+        freeStyleProject.delete();
+        assertEquals(size - 1, history.size());
+    }
+}
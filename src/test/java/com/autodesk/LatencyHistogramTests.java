@@ -0,0 +1,48 @@
+package com.autodesk;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link LatencyHistogram}
+ */
+public class LatencyHistogramTests {
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.quantile(0.99));
+    }
+
+    @Test
+    public void testQuantilesWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050000, histogram.getSumMillis());
+        assertEquals(100000, histogram.getMaxMillis());
+        long p50 = histogram.quantile(0.5);
+        assertTrue(p50 >= 50000);
+        assertTrue(p50 <= 50000 * 1.2);
+        long p90 = histogram.quantile(0.9);
+        assertTrue(p90 >= 90000);
+        assertTrue(p90 <= 90000 * 1.2);
+        // never above the largest value recorded
+        assertEquals(100000, histogram.quantile(0.99));
+    }
+
+    @Test
+    public void testExtremeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(0);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(3, histogram.getCount());
+        assertEquals(1, histogram.quantile(0.5));
+        assertEquals(Long.MAX_VALUE, histogram.getMaxMillis());
+        assertTrue(histogram.quantile(1) > 0);
+    }
+}
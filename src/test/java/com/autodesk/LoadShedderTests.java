@@ -0,0 +1,77 @@
+package com.autodesk;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test class for {@link LoadShedder}
+ */
+public class LoadShedderTests {
+
+    private static LoadShedder.Candidate<String> candidate(String name, int priority, String label, String task,
+                                                          long inQueueSince) {
+        return new LoadShedder.Candidate<>(name, priority, label, task, inQueueSince);
+    }
+
+    @Test
+    public void testNothingShedUnderWatermarks() {
+        List<LoadShedder.Candidate<String>> candidates = Arrays.asList(
+                candidate("a", 0, "linux", "job/a", 1),
+                candidate("b", 0, "linux", "job/b", 2));
+        assertTrue(LoadShedder.selectVictims(candidates, 2, Long.MIN_VALUE).isEmpty());
+        assertTrue(LoadShedder.selectVictims(Collections.emptyList(), 0, Long.MIN_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testLowestPriorityFirst() {
+        List<LoadShedder.Candidate<String>> candidates = Arrays.asList(
+                candidate("important", 10, "linux", "job/a", 1),
+                candidate("normal", 0, "linux", "job/b", 2),
+                candidate("background", -5, "linux", "job/c", 3));
+        assertEquals(Arrays.asList("background", "normal"), LoadShedder.selectVictims(candidates, 1, Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testOldestPerLabelInTurn() {
+        List<LoadShedder.Candidate<String>> candidates = Arrays.asList(
+                candidate("linux-1", 0, "linux", "job/a", 1),
+                candidate("linux-2", 0, "linux", "job/b", 2),
+                candidate("linux-3", 0, "linux", "job/c", 3),
+                candidate("windows-1", 0, "windows", "job/d", 4),
+                candidate("windows-2", 0, "windows", "job/e", 5));
+        // the second oldest linux item is only cancelled after the oldest windows item
+        assertEquals(Arrays.asList("linux-1", "windows-1", "linux-2"),
+                LoadShedder.selectVictims(candidates, 2, Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testDuplicatesFirst() {
+        List<LoadShedder.Candidate<String>> candidates = Arrays.asList(
+                candidate("unique", 0, "linux", "job/a", 1),
+                candidate("task-1", 0, "windows", "job/b", 2),
+                candidate("task-2", 0, "windows", "job/b", 3),
+                candidate("important-task-2", 5, "windows", "job/c", 4),
+                candidate("important-task-1", 5, "windows", "job/c", 0));
+        // the extra item of a task goes before older unique items, but not before a lower priority
+        assertEquals(Arrays.asList("task-2", "unique"), LoadShedder.selectVictims(candidates, 3, Long.MIN_VALUE));
+        assertEquals(Arrays.asList("task-2", "unique", "task-1", "important-task-2"),
+                LoadShedder.selectVictims(candidates, 1, Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testOnlyOldItemsShedForAge() {
+        List<LoadShedder.Candidate<String>> candidates = new ArrayList<>();
+        candidates.add(candidate("new-low", -1, "linux", "job/a", 100));
+        candidates.add(candidate("old-1", 0, "linux", "job/b", 1));
+        candidates.add(candidate("old-2", 0, "windows", "job/c", 2));
+        candidates.add(candidate("new", 0, "linux", "job/d", 50));
+        // no length limit, items older than 10 have to go
+        assertEquals(Arrays.asList("old-1", "old-2"),
+                LoadShedder.selectVictims(candidates, Integer.MAX_VALUE, 10));
+    }
+}
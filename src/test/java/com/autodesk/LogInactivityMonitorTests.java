@@ -0,0 +1,76 @@
+package com.autodesk;
+
+import com.autodesk.config.GlobalTimeoutConfig;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.PeriodicWork;
+import hudson.model.Result;
+import jenkins.model.InterruptedBuildAction;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.SleepBuilder;
+import static org.junit.Assert.*;
+
+import java.util.Objects;
+
+/**
+ * Test class for {@link LogInactivityMonitor}
+ */
+public class LogInactivityMonitorTests {
+
+    @Rule
+    public final JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Test
+    public void testAbortsStalledBuild() throws Exception {
+        LogInactivityMonitor monitor = PeriodicWork.all().get(LogInactivityMonitor.class);
+        assertNotNull(monitor);
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        freeStyleProject.getBuildersList().add(new SleepBuilder(600000));
+        FreeStyleBuild freeStyleBuild = Objects.requireNonNull(freeStyleProject.scheduleBuild2(0)).waitForStart();
+        Thread.sleep(2000);
+        // disabled by default
+        assertEquals(0, monitor.check());
+
+        GlobalTimeoutConfig.get().setLogInactivityTimeout("1s");
+        assertEquals(1, monitor.check());
+        // a build that is being aborted is not aborted again
+        assertEquals(0, monitor.check());
+        jenkinsRule.assertBuildStatus(Result.ABORTED, jenkinsRule.waitForCompletion(freeStyleBuild));
+        InterruptedBuildAction action = freeStyleBuild.getAction(InterruptedBuildAction.class);
+        assertNotNull(action);
+        assertTrue(action.getCauses().get(0) instanceof LogInactivityMonitor.LogInactivityInterruption);
+    }
+
+    @Test
+    public void testIgnoresActiveBuild() throws Exception {
+        LogInactivityMonitor monitor = PeriodicWork.all().get(LogInactivityMonitor.class);
+        GlobalTimeoutConfig.get().setLogInactivityTimeout("10m");
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        freeStyleProject.getBuildersList().add(new SleepBuilder(600000));
+        FreeStyleBuild freeStyleBuild = Objects.requireNonNull(freeStyleProject.scheduleBuild2(0)).waitForStart();
+        assertEquals(0, monitor.check());
+        freeStyleBuild.doStop();
+        jenkinsRule.waitForCompletion(freeStyleBuild);
+    }
+
+    @Test
+    public void testAbortsStalledPipeline() throws Exception {
+        LogInactivityMonitor monitor = PeriodicWork.all().get(LogInactivityMonitor.class);
+        GlobalTimeoutConfig.get().setLogInactivityTimeout("10m");
+        WorkflowJob workflowJob = jenkinsRule.createProject(WorkflowJob.class);
+        workflowJob.setDefinition(new CpsFlowDefinition("echo 'started'\nsleep 600", false));
+        WorkflowRun workflowRun = Objects.requireNonNull(workflowJob.scheduleBuild2(0)).waitForStart();
+        jenkinsRule.waitForMessage("started", workflowRun);
+        assertEquals(0, monitor.check());
+
+        Thread.sleep(2000);
+        GlobalTimeoutConfig.get().setLogInactivityTimeout("1s");
+        assertEquals(1, monitor.check());
+        jenkinsRule.assertBuildStatus(Result.ABORTED, jenkinsRule.waitForCompletion(workflowRun));
+    }
+}
@@ -0,0 +1,78 @@
+package com.autodesk;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Queue;
+import hudson.model.labels.LabelAtom;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for {@link QueueCancellationCoordinator}
+ */
+public class QueueCancellationCoordinatorTests {
+
+    @Rule
+    public final JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Test
+    public void testSingleAttemptPerItem() throws Exception {
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject("stuck-freestyle");
+        freeStyleProject.setAssignedLabel(new LabelAtom("non-existent-label"));
+        freeStyleProject.scheduleBuild2(0);
+        Queue.Item queueItem = freeStyleProject.getQueueItem();
+        assertNotNull(queueItem);
+
+        QueueCancellationCoordinator coordinator = QueueCancellationCoordinator.get();
+        AtomicInteger attempts = new AtomicInteger();
+        assertTrue(coordinator.submit(queueItem, new QueueTimeout.QueueTimeoutInterruption(), (item, cause) -> () -> {
+            attempts.incrementAndGet();
+            return true;
+        }));
+        // a second request for the same item is ignored
+        assertFalse(coordinator.submit(queueItem, new QueueTimeout.QueueTimeoutInterruption(), (item, cause) -> () -> {
+            attempts.incrementAndGet();
+            return true;
+        }));
+        coordinator.flush();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (coordinator.getState(queueItem.getId()) != QueueCancellationCoordinator.State.DONE
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(QueueCancellationCoordinator.State.DONE, coordinator.getState(queueItem.getId()));
+        assertEquals(1, attempts.get());
+
+        // leaving the queue drops the state of the item
+        Queue.getInstance().cancel(freeStyleProject);
+        assertNull(coordinator.getState(queueItem.getId()));
+    }
+
+    @Test
+    public void testNoAttemptAfterItemLeft() throws Exception {
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject("stuck-freestyle");
+        freeStyleProject.setAssignedLabel(new LabelAtom("non-existent-label"));
+        freeStyleProject.scheduleBuild2(0);
+        Queue.Item queueItem = freeStyleProject.getQueueItem();
+        assertNotNull(queueItem);
+
+        QueueCancellationCoordinator coordinator = QueueCancellationCoordinator.get();
+        AtomicInteger attempts = new AtomicInteger();
+        assertTrue(coordinator.submit(queueItem, new QueueTimeout.QueueTimeoutInterruption(), (item, cause) -> () -> {
+            attempts.incrementAndGet();
+            return true;
+        }));
+        // the item leaves the queue before its batch runs, and a newer build of the same job is queued
+        Queue.getInstance().cancel(queueItem);
+        freeStyleProject.scheduleBuild2(0);
+        coordinator.flush();
+        Thread.sleep(2000);
+        assertEquals(0, attempts.get());
+        assertNotNull(freeStyleProject.getQueueItem());
+        Queue.getInstance().cancel(freeStyleProject);
+    }
+}
@@ -0,0 +1,76 @@
+package com.autodesk;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Queue;
+import hudson.model.labels.LabelAtom;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+/**
+ * Test class for {@link QueueDeadlineIndex}
+ */
+public class QueueDeadlineIndexTests {
+
+    @Rule
+    public final JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Test
+    public void testTracksQueueItems() throws Exception {
+        QueueDeadlineIndex index = QueueDeadlineIndex.get();
+        assertNotNull(index);
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject("stuck-freestyle");
+        freeStyleProject.setAssignedLabel(new LabelAtom("non-existent-label"));
+        freeStyleProject.scheduleBuild2(0);
+        Queue.Item queueItem = freeStyleProject.getQueueItem();
+        assertNotNull(queueItem);
+        assertEquals(1, index.size());
+
+        // nothing has expired yet
+        assertTrue(index.pollExpired(QueueDeadlineIndex.Kind.QUEUE_TIMEOUT, queueItem.getInQueueSince()).isEmpty());
+        // every item is returned once per kind
+        List<Queue.Item> expired = index.pollExpired(QueueDeadlineIndex.Kind.QUEUE_TIMEOUT, Long.MAX_VALUE);
+        assertEquals(1, expired.size());
+        assertEquals(queueItem.getId(), expired.get(0).getId());
+        assertTrue(index.pollExpired(QueueDeadlineIndex.Kind.QUEUE_TIMEOUT, Long.MAX_VALUE).isEmpty());
+        assertEquals(1, index.pollExpired(QueueDeadlineIndex.Kind.NO_SUCH_NODE, Long.MAX_VALUE).size());
+
+        // leaving the queue removes the item from the index
+        Queue.getInstance().cancel(freeStyleProject);
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testRecheckAndRearm() throws Exception {
+        QueueDeadlineIndex index = QueueDeadlineIndex.get();
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject("stuck-freestyle");
+        freeStyleProject.setAssignedLabel(new LabelAtom("non-existent-label"));
+        freeStyleProject.scheduleBuild2(0);
+        Queue.Item queueItem = freeStyleProject.getQueueItem();
+        assertNotNull(queueItem);
+        assertEquals(1, index.pollExpired(QueueDeadlineIndex.Kind.NO_SUCH_NODE, Long.MAX_VALUE).size());
+
+        // a deferred item is returned once by the next recheck
+        assertFalse(index.hasRechecks());
+        index.deferRecheck(queueItem.getId());
+        index.deferRecheck(-1);  // not queued
+        assertTrue(index.hasRechecks());
+        List<Queue.Item> rechecks = index.pollRechecks();
+        assertEquals(1, rechecks.size());
+        assertEquals(queueItem.getId(), rechecks.get(0).getId());
+        assertFalse(index.hasRechecks());
+
+        // a re-armed item expires again for every kind
+        index.rearm(queueItem.getId());
+        assertEquals(1, index.pollExpired(QueueDeadlineIndex.Kind.QUEUE_TIMEOUT, Long.MAX_VALUE).size());
+        assertEquals(1, index.pollExpired(QueueDeadlineIndex.Kind.NO_SUCH_NODE, Long.MAX_VALUE).size());
+
+        // leaving the queue drops a deferred item
+        index.deferRecheck(queueItem.getId());
+        Queue.getInstance().cancel(freeStyleProject);
+        assertFalse(index.hasRechecks());
+    }
+}
@@ -0,0 +1,56 @@
+package com.autodesk;
+
+import hudson.model.Queue;
+import jenkins.model.CauseOfInterruption;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Test class for {@link QueueTaskCanceller}
+ */
+public class QueueTaskCancellerTests {
+
+    private static abstract class BaseTask implements Queue.Task {
+    }
+
+    private static abstract class SpecialTask extends BaseTask {
+    }
+
+    private static class TestCanceller extends QueueTaskCanceller {
+
+        TestCanceller(Class<? extends Queue.Task> taskType) {
+            super(taskType);
+        }
+
+        @Override
+        public boolean cancel(Queue.Item item, CauseOfInterruption cause) {
+            return true;
+        }
+    }
+
+    private final QueueTaskCanceller any = new TestCanceller(Queue.Task.class);
+    private final QueueTaskCanceller base = new TestCanceller(BaseTask.class);
+    private final QueueTaskCanceller special = new TestCanceller(SpecialTask.class);
+
+    @Test
+    public void testMostSpecificTypeWins() {
+        assertSame(special, QueueTaskCanceller.select(Arrays.asList(any, special, base), SpecialTask.class));
+        assertSame(base, QueueTaskCanceller.select(Arrays.asList(special, base, any), BaseTask.class));
+        assertSame(any, QueueTaskCanceller.select(Arrays.asList(special, base, any), Queue.Task.class));
+    }
+
+    @Test
+    public void testFirstOfSameTypeWins() {
+        QueueTaskCanceller other = new TestCanceller(BaseTask.class);
+        assertSame(base, QueueTaskCanceller.select(Arrays.asList(base, other), SpecialTask.class));
+    }
+
+    @Test
+    public void testDefaultWhenNoneApplies() {
+        assertTrue(QueueTaskCanceller.select(Collections.singletonList(special), BaseTask.class)
+                instanceof QueueTaskCanceller.DefaultCanceller);
+    }
+}
@@ -1,18 +1,27 @@
 package com.autodesk;
 
 import com.autodesk.QueueTimeout;
+import com.autodesk.config.GlobalTimeoutConfig;
+import com.autodesk.config.TimeoutSettings;
 import hudson.Functions;
 import hudson.model.Computer;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.model.Label;
+import hudson.model.ParametersAction;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.PeriodicWork;
 import hudson.model.Queue;
 import hudson.model.Result;
 import hudson.model.Slave;
+import hudson.model.StringParameterDefinition;
+import hudson.model.StringParameterValue;
 import hudson.model.labels.LabelAtom;
+import hudson.model.queue.QueueListener;
 import hudson.model.queue.SubTask;
 import hudson.slaves.Cloud;
 import hudson.slaves.DumbSlave;
+import hudson.slaves.JNLPLauncher;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
@@ -154,4 +163,177 @@ public class QueueTests {
         assertTrue(QueueTimeout.checkIfAgentExists(item));
         jenkinsRule.assertBuildStatus(Result.SUCCESS, workflowRun);
     }
+
+    @Test
+    public void testCheckIfAgentExistsAfterNodeAdded() throws Exception {
+
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject("late-agent-freestyle");
+        freeStyleProject.setAssignedLabel(new LabelAtom("late-label"));
+        freeStyleProject.scheduleBuild2(0);
+        Queue.Item queueItem = freeStyleProject.getQueueItem();
+        assertNotNull(queueItem);
+        assertFalse(QueueTimeout.checkIfAgentExists(queueItem));
+        // adding an agent with the label must invalidate the cached answer
+        jenkinsRule.createOnlineSlave(new LabelAtom("late-label"));
+        assertTrue(QueueTimeout.checkIfAgentExists(queueItem));
+    }
+
+    @Test
+    public void testCheckIfAgentExistsLabelExpression() throws Exception {
+
+        jenkinsRule.createSlave("linux-docker-agent", "linux docker", null);
+        jenkinsRule.createSlave("mac-agent", "mac", null);
+        assertTrue(checkIfAgentExists("linux-docker-freestyle", "linux && docker"));
+        assertTrue(checkIfAgentExists("win-or-mac-freestyle", "win || mac"));
+        assertFalse(checkIfAgentExists("linux-mac-freestyle", "linux && mac"));
+    }
+
+    @Test
+    public void testSweepScheduledAtNextDeadline() throws Exception {
+
+        GlobalTimeoutConfig.get().setQueueTimeout(1);
+        GlobalTimeoutConfig.get().setSweepMaxInterval(10);
+        QueueTimeout queueTimeout = PeriodicWork.all().get(QueueTimeout.class);
+        // nothing queued, the sweep stays idle
+        queueTimeout.checkForTimeout();
+        assertEquals(0, queueTimeout.getNextSweepMillis());
+
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject("stuck-sweep-freestyle");
+        freeStyleProject.setAssignedLabel(new LabelAtom("non-existent-label"));
+        freeStyleProject.scheduleBuild2(0);
+        assertNotNull(freeStyleProject.getQueueItem());
+        // the item is due in a minute, but the sweep wakes up within the maximum interval
+        long nextSweep = queueTimeout.getNextSweepMillis();
+        assertTrue(nextSweep > 0);
+        assertTrue(nextSweep <= System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10));
+        Queue.getInstance().cancel(freeStyleProject);
+    }
+
+    @Test
+    public void testRejectUnservableLabels() throws Exception {
+        FreeStyleProject rejected = jenkinsRule.createFreeStyleProject("rejected-freestyle");
+        rejected.setAssignedLabel(new LabelAtom("non-existent-label"));
+        FreeStyleProject allowed = jenkinsRule.createFreeStyleProject("allowed-freestyle");
+        allowed.setAssignedLabel(new LabelAtom("non-existent-label"));
+        GlobalTimeoutConfig.get().setAdmissionAllowlist("allowed-freestyle");
+        GlobalTimeoutConfig.get().setRejectUnservableLabels(true);
+
+        // refused before entering the queue
+        assertNull(rejected.scheduleBuild2(0));
+        assertNull(rejected.getQueueItem());
+        // allowlisted jobs may wait for their agents
+        assertNotNull(allowed.scheduleBuild2(0));
+        assertNotNull(allowed.getQueueItem());
+        Queue.getInstance().cancel(allowed);
+        // servable labels are not affected
+        FreeStyleProject valid = jenkinsRule.createFreeStyleProject("valid-admission-freestyle");
+        valid.setAssignedLabel(new LabelAtom("test-label"));
+        jenkinsRule.buildAndAssertSuccess(valid);
+    }
+
+    @Test
+    public void testShedLoadSkipsPendingCancellations() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            jenkinsRule.createFreeStyleProject("shed-freestyle-" + i).scheduleBuild2(600);
+        }
+        GlobalTimeoutConfig.get().setSheddingHighWatermark(2);
+        TimeoutSettings settings = GlobalTimeoutConfig.settings();
+        // no low-water mark set, so the queue is brought back to the high-water mark
+        assertEquals(2, settings.getSheddingLowWatermark());
+
+        QueueTimeout queueTimeout = PeriodicWork.all().get(QueueTimeout.class);
+        QueueDeadlineIndex index = QueueDeadlineIndex.get();
+        assertEquals(1, queueTimeout.shedLoad(index, settings, System.currentTimeMillis()));
+        // the item being cancelled is not counted again by the next sweep
+        assertEquals(0, queueTimeout.shedLoad(index, settings, System.currentTimeMillis()));
+        assertEquals(1, TimeoutMetrics.get().getShedCount());
+        Queue.getInstance().clear();
+    }
+
+    @Test
+    public void testStopQueueTaskOfAnyType() throws Exception {
+        // a pipeline job waiting in its quiet period is neither a freestyle project nor a node block
+        WorkflowJob workflowJob = jenkinsRule.createProject(WorkflowJob.class);
+        workflowJob.setDefinition(new CpsFlowDefinition("echo 'never runs'", false));
+        workflowJob.scheduleBuild2(600);
+        Queue.Item queueItem = workflowJob.getQueueItem();
+        assertNotNull(queueItem);
+        QueueTimeout queueTimeout = PeriodicWork.all().get(QueueTimeout.class);
+        assertTrue(queueTimeout.stopQueueTask(queueItem, new QueueTimeout.QueueTimeoutInterruption()));
+        assertNull(workflowJob.getQueueItem());
+    }
+
+    @Test
+    public void testStopQueueTaskCancelsOnlyThatItem() throws Exception {
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        freeStyleProject.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("P", "")));
+        freeStyleProject.setConcurrentBuild(true);
+        freeStyleProject.setAssignedLabel(new LabelAtom("non-existent-label"));
+        freeStyleProject.scheduleBuild2(0, null, new ParametersAction(new StringParameterValue("P", "1")));
+        freeStyleProject.scheduleBuild2(0, null, new ParametersAction(new StringParameterValue("P", "2")));
+        Queue.Item[] items = Queue.getInstance().getItems(freeStyleProject).toArray(new Queue.Item[0]);
+        assertEquals(2, items.length);
+
+        QueueTimeout queueTimeout = PeriodicWork.all().get(QueueTimeout.class);
+        assertTrue(queueTimeout.stopQueueTask(items[1], new QueueTimeout.QueueTimeoutInterruption()));
+        // the other build of the same job stays queued
+        assertNotNull(Queue.getInstance().getItem(items[0].getId()));
+        assertNull(Queue.getInstance().getItem(items[1].getId()));
+        assertFalse(queueTimeout.stopQueueTask(items[1], new QueueTimeout.QueueTimeoutInterruption()));
+        Queue.getInstance().cancel(items[0]);
+    }
+
+    @Test
+    public void testNoSuchNodeRecheckedWhenAgentRemoved() throws Exception {
+        // an agent that never connects can still serve the label
+        DumbSlave offlineAgent = new DumbSlave("offline-agent", "/tmp/offline-agent", new JNLPLauncher(true));
+        offlineAgent.setLabelString("offline-label");
+        jenkinsRule.getInstance().addNode(offlineAgent);
+        GlobalTimeoutConfig.get().setNoSuchNodeQueueTimeoutDuration("1s");
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject("offline-freestyle");
+        freeStyleProject.setAssignedLabel(new LabelAtom("offline-label"));
+        freeStyleProject.scheduleBuild2(0);
+        assertNotNull(freeStyleProject.getQueueItem());
+        Thread.sleep(2000);
+
+        QueueTimeout queueTimeout = PeriodicWork.all().get(QueueTimeout.class);
+        queueTimeout.checkForTimeout();
+        Thread.sleep(1000);
+        assertNotNull(freeStyleProject.getQueueItem());
+        // the item passed its timeout while the agent existed, it is checked again once the agent is gone
+        jenkinsRule.getInstance().removeNode(offlineAgent);
+        queueTimeout.checkForTimeout();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (freeStyleProject.getQueueItem() != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertNull(freeStyleProject.getQueueItem());
+    }
+
+    @Test
+    public void testInvalidLabelDeadlineCancelledOnLeft() throws Exception {
+        GlobalTimeoutConfig.get().setNoSuchNodeQueueTimeoutDuration("1h");
+        QueueTimeout.InvalidLabelListener listener =
+                QueueListener.all().get(QueueTimeout.InvalidLabelListener.class);
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject("left-freestyle");
+        freeStyleProject.setAssignedLabel(new LabelAtom("non-existent-label"));
+        freeStyleProject.scheduleBuild2(0);
+        assertNotNull(freeStyleProject.getQueueItem());
+        assertEquals(1, listener.getPendingDeadlineCount());
+
+        // an item that leaves the queue before its timeout does not leave its deadline behind
+        Queue.getInstance().cancel(freeStyleProject);
+        assertEquals(0, listener.getPendingDeadlineCount());
+    }
+
+    private boolean checkIfAgentExists(String jobName, String labelExpression) throws Exception {
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject(jobName);
+        freeStyleProject.setAssignedLabel(Label.parseExpression(labelExpression));
+        freeStyleProject.scheduleBuild2(0);
+        Queue.Item queueItem = freeStyleProject.getQueueItem();
+        assertNotNull(queueItem);
+        boolean agentExists = QueueTimeout.checkIfAgentExists(queueItem);
+        Queue.getInstance().cancel(freeStyleProject);
+        return agentExists;
+    }
 }
@@ -0,0 +1,125 @@
+package com.autodesk;
+
+import com.autodesk.config.GlobalTimeoutConfig;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.SleepBuilder;
+import static org.junit.Assert.*;
+
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for {@link TimeoutActionExecutor}
+ */
+public class TimeoutActionExecutorTests {
+
+    @Rule
+    public final JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Test
+    public void testSaturatedActionsAreDeferred() throws Exception {
+        GlobalTimeoutConfig.get().setActionThreads(1);
+        GlobalTimeoutConfig.get().setActionQueueCapacity(1);
+        TimeoutActionExecutor executor = TimeoutActionExecutor.get();
+        long rejectedBefore = executor.getRejectedCount();
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        executor.execute(done::countDown);  // waits for the only thread
+        executor.execute(done::countDown);  // over capacity, deferred
+        assertEquals(1, executor.getQueueDepth());
+        assertEquals(rejectedBefore + 1, executor.getRejectedCount());
+        assertEquals(1, executor.getDeferredCount());
+
+        release.countDown();
+        // the deferred action still runs once the pool has capacity again
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDeferredBacklogIsBounded() throws Exception {
+        GlobalTimeoutConfig.get().setActionThreads(1);
+        GlobalTimeoutConfig.get().setActionQueueCapacity(1);
+        TimeoutActionExecutor executor = TimeoutActionExecutor.get();
+        long droppedBefore = executor.getDroppedCount();
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertTrue(executor.offer(done::countDown));  // waits for the only thread
+        assertTrue(executor.offer(done::countDown));  // deferred
+        // the deferred backlog is full, the action is dropped
+        assertFalse(executor.offer(() -> fail("dropped action ran")));
+        assertEquals(droppedBefore + 1, executor.getDroppedCount());
+        Thread.sleep(2 * DeadlineScheduler.TICK_MILLIS);
+        // a deferred action keeps its place in the backlog while the pool is still saturated
+        assertEquals(1, executor.getDeferredCount());
+
+        release.countDown();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(droppedBefore + 1, executor.getDroppedCount());
+    }
+
+    @Test
+    public void testDeadlineActionsAreNeverDropped() throws Exception {
+        GlobalTimeoutConfig.get().setActionThreads(1);
+        GlobalTimeoutConfig.get().setActionQueueCapacity(1);
+        TimeoutActionExecutor executor = TimeoutActionExecutor.get();
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        freeStyleProject.getBuildersList().add(new SleepBuilder(600000));
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertTrue(executor.offer(() -> { }));  // waits for the only thread
+        assertTrue(executor.offer(() -> { }));  // fills the deferred backlog
+        assertFalse(executor.offer(() -> { }));
+
+        // the deadline of the build fires while the executor is saturated
+        GlobalTimeoutConfig.get().setBuildTimeoutDuration("1s");
+        FreeStyleBuild freeStyleBuild = Objects.requireNonNull(freeStyleProject.scheduleBuild2(0)).waitForStart();
+        long giveUp = System.currentTimeMillis() + 30000;
+        while (executor.getDeferredCount() < 2 && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(500);
+        }
+        // the deadline action waits in the full backlog instead of being dropped
+        assertEquals(2, executor.getDeferredCount());
+        assertTrue(freeStyleBuild.isBuilding());
+
+        release.countDown();
+        jenkinsRule.assertBuildStatus(Result.ABORTED, jenkinsRule.waitForCompletion(freeStyleBuild));
+    }
+}
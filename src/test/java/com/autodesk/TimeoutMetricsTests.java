@@ -0,0 +1,81 @@
+package com.autodesk;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.PeriodicWork;
+import net.sf.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link TimeoutMetrics} and {@link TimeoutMetricsAction}
+ */
+public class TimeoutMetricsTests {
+
+    @Rule
+    public final JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Test
+    public void testSweepIsRecorded() throws Exception {
+        TimeoutMetrics metrics = TimeoutMetrics.get();
+        long sweepsBefore = metrics.getSweepCount();
+        PeriodicWork.all().get(QueueTimeout.class).checkForTimeout();
+        assertEquals(sweepsBefore + 1, metrics.getSweepCount());
+    }
+
+    @Test
+    public void testMetricsEndpoint() throws Exception {
+        PeriodicWork.all().get(QueueTimeout.class).checkForTimeout();
+        String content = jenkinsRule.createWebClient()
+                .goTo("global-build-timeout/", "application/json").getWebResponse().getContentAsString();
+        JSONObject json = JSONObject.fromObject(content);
+        assertTrue(json.getJSONObject("sweep").getLong("count") >= 1);
+        assertTrue(json.getJSONObject("expired").has(QueueDeadlineIndex.Kind.QUEUE_TIMEOUT.name()));
+        assertTrue(json.getJSONObject("abort").has(AbortEscalation.Stage.INTERRUPT.name()));
+        assertTrue(json.has("cancellation"));
+        assertEquals(0, json.getJSONObject("executor").getInt("deferred"));
+        assertTrue(json.getJSONObject("queueWait").getJSONObject("reason")
+                .has(QueueWaitMetrics.LeaveReason.STARTED.name()));
+    }
+
+    @Test
+    public void testQueueWaitIsRecorded() throws Exception {
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        JSONObject queueWait = QueueWaitMetrics.get().toJSON();
+        assertEquals(1, queueWait.getJSONObject("reason")
+                .getJSONObject(QueueWaitMetrics.LeaveReason.STARTED.name()).getLong("count"));
+        assertEquals(1, queueWait.getJSONObject("label")
+                .getJSONObject(QueueWaitMetrics.NO_LABEL).getLong("count"));
+        assertEquals(1, queueWait.getJSONObject("jobType")
+                .getJSONObject(FreeStyleProject.class.getSimpleName()).getLong("count"));
+
+        String content = jenkinsRule.createWebClient()
+                .goTo("global-build-timeout/prometheus", "text/plain").getWebResponse().getContentAsString();
+        assertTrue(content.contains("# TYPE global_build_timeout_queue_wait_by_label_seconds summary"));
+        assertTrue(content.contains("# TYPE global_build_timeout_queue_wait_by_job_type_seconds summary"));
+        assertTrue(content.contains("# TYPE global_build_timeout_queue_wait_by_reason_seconds summary"));
+        assertTrue(content.contains("global_build_timeout_queue_wait_by_reason_seconds_count{reason=\"started\"} 1"));
+    }
+
+    @Test
+    public void testQueueWaitReasonsAndKeyBound() {
+        QueueWaitMetrics metrics = new QueueWaitMetrics();
+        metrics.record("linux", "WorkflowJob", QueueWaitMetrics.LeaveReason.CANCELLED_BY_POLICY, 1000);
+        metrics.record("linux", "WorkflowJob", QueueWaitMetrics.LeaveReason.CANCELLED_BY_USER, 3000);
+        for (int i = 0; i < QueueWaitMetrics.MAX_KEYS * 2; i++) {
+            metrics.record("label" + i, "WorkflowJob", QueueWaitMetrics.LeaveReason.STARTED, i);
+        }
+        // further labels are counted together instead of growing without bound
+        assertEquals(QueueWaitMetrics.MAX_KEYS + 1, metrics.getLabelCount());
+        JSONObject json = metrics.toJSON();
+        assertEquals(QueueWaitMetrics.MAX_KEYS + 1,
+                json.getJSONObject("label").getJSONObject(QueueWaitMetrics.OTHER).getLong("count"));
+        assertEquals(2, json.getJSONObject("label").getJSONObject("linux").getLong("count"));
+        assertEquals(1000, json.getJSONObject("reason")
+                .getJSONObject(QueueWaitMetrics.LeaveReason.CANCELLED_BY_POLICY.name()).getLong("maxMillis"));
+        assertEquals(3000, json.getJSONObject("reason")
+                .getJSONObject(QueueWaitMetrics.LeaveReason.CANCELLED_BY_USER.name()).getLong("p50Millis"));
+    }
+}
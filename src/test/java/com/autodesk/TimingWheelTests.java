@@ -0,0 +1,99 @@
+package com.autodesk;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test class for {@link TimingWheel}
+ */
+public class TimingWheelTests {
+
+    private static TimingWheel.Node node(long expiryTick) {
+        TimingWheel.Node node = new TimingWheel.Node();
+        node.expiryTick = expiryTick;
+        return node;
+    }
+
+    @Test
+    public void testExpiresOnTick() {
+        TimingWheel wheel = new TimingWheel(0);
+        TimingWheel.Node node = node(10);
+        wheel.add(node);
+        List<TimingWheel.Node> expired = new ArrayList<>();
+        wheel.advanceTo(9, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advanceTo(10, expired::add);
+        assertEquals(1, expired.size());
+        assertSame(node, expired.get(0));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testCancel() {
+        TimingWheel wheel = new TimingWheel(0);
+        TimingWheel.Node first = node(5);
+        TimingWheel.Node second = node(5);
+        wheel.add(first);
+        wheel.add(second);
+        assertTrue(wheel.remove(first));
+        assertFalse(wheel.remove(first));
+        assertEquals(1, wheel.size());
+        List<TimingWheel.Node> expired = new ArrayList<>();
+        wheel.advanceTo(5, expired::add);
+        assertEquals(1, expired.size());
+        assertSame(second, expired.get(0));
+    }
+
+    @Test
+    public void testCascadeAcrossLevels() {
+        long start = 123_456;
+        TimingWheel wheel = new TimingWheel(start);
+        Random random = new Random(42);
+        List<TimingWheel.Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            // spread deadlines over all levels of the wheel
+            long delta = 1 + (long) (random.nextDouble() * (1L << (TimingWheel.WHEEL_BITS * 3)));
+            TimingWheel.Node node = node(start + delta);
+            nodes.add(node);
+            wheel.add(node);
+        }
+        long end = start + (1L << (TimingWheel.WHEEL_BITS * 3)) + 1;
+        List<Long> firedAt = new ArrayList<>();
+        for (long tick = start + 1; tick <= end; tick++) {
+            final long current = tick;
+            wheel.advanceTo(tick, node -> {
+                assertEquals("node must expire exactly on its tick", node.expiryTick, current);
+                firedAt.add(current);
+            });
+        }
+        assertEquals(nodes.size(), firedAt.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testDeadlineBeyondWheelSpan() {
+        TimingWheel wheel = new TimingWheel(0);
+        long expiryTick = (1L << (TimingWheel.WHEEL_BITS * TimingWheel.LEVELS)) * 2 + 17;
+        TimingWheel.Node node = node(expiryTick);
+        wheel.add(node);
+        List<TimingWheel.Node> expired = new ArrayList<>();
+        wheel.advanceTo(expiryTick - 1, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advanceTo(expiryTick, expired::add);
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    public void testOverdueNodeExpiresOnNextTick() {
+        TimingWheel wheel = new TimingWheel(100);
+        TimingWheel.Node node = node(50);
+        wheel.add(node);
+        List<TimingWheel.Node> expired = new ArrayList<>();
+        wheel.advanceTo(101, expired::add);
+        assertEquals(1, expired.size());
+    }
+}
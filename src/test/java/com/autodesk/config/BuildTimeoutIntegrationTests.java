@@ -204,7 +204,7 @@ public class BuildTimeoutIntegrationTests {
     }
 
     private void setPipelineWithJobTimeout(int durationSeconds, int jobTimeoutMinutes) {
-        String jenkinsfileString = "properties([jobTimeoutProperty(" + jobTimeoutMinutes + ")])\n"
+        String jenkinsfileString = "properties([jobTimeoutProperty(buildTimeout: " + jobTimeoutMinutes + ")])\n"
                 + "node() {\n"
                 + "    sh 'sleep " + durationSeconds + "; echo done'\n"
                 + "}";
@@ -1,9 +1,17 @@
 package com.autodesk.config;
 
+import hudson.BulkChange;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import net.sf.json.JSONObject;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.kohsuke.stapler.StaplerRequest;
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Collections;
 
 public class GlobalTimeoutConfigTests {
 
@@ -34,6 +42,101 @@ public class GlobalTimeoutConfigTests {
         assertEquals(1, noSuchNodeQueueTimeout.intValue());
     }
 
+    @Test
+    public void testSetBuildTimeoutDuration() {
+        GlobalTimeoutConfig.get().setBuildTimeoutDuration("90s");
+        assertEquals("1m30s", GlobalTimeoutConfig.get().getBuildTimeoutDuration());
+        assertEquals(90000, GlobalTimeoutConfig.get().getBuildTimeoutMillis());
+        // the minute based getter rounds down
+        assertEquals(1, GlobalTimeoutConfig.get().getBuildTimeout().intValue());
+    }
+
+    @Test
+    public void testSetPolicyRules() {
+        GlobalTimeoutConfig.get().setPolicyRules(Collections.singletonList(
+                new TimeoutPolicyRule(TimeoutPolicyRule.Scope.FOLDER, "team", "90s")));
+        assertEquals(1, GlobalTimeoutConfig.get().getPolicyRules().size());
+        assertEquals(90000, GlobalTimeoutConfig.get().getPolicy()
+                .resolve("team/build", Collections.emptyList(), Object.class));
+    }
+
+    @Test
+    public void testSettingsPublishedOnCommit() throws Exception {
+        GlobalTimeoutConfig config = GlobalTimeoutConfig.get();
+        config.setBuildTimeout(10);
+        try (BulkChange bc = new BulkChange(config)) {
+            config.setBuildTimeoutDuration("90s");
+            config.setQueueTimeoutDuration("2m");
+            // nothing is published until the bulk change is committed
+            assertEquals(600000, GlobalTimeoutConfig.settings().getBuildTimeoutMillis());
+            bc.commit();
+        }
+        assertEquals(90000, GlobalTimeoutConfig.settings().getBuildTimeoutMillis());
+        assertEquals(120000, GlobalTimeoutConfig.settings().getQueueTimeoutMillis());
+    }
+
+    @Test
+    public void testSettingsRebuiltAfterClear() {
+        GlobalTimeoutConfig.get().setBuildTimeoutDuration("90s");
+        GlobalTimeoutConfig.clearSettings();
+        TimeoutSettings settings = GlobalTimeoutConfig.settings();
+        assertNotNull(settings);
+        assertEquals(90000, settings.getBuildTimeoutMillis());
+    }
+
+    @Test
+    public void testRejectedFormRestoresSettings() throws Exception {
+        GlobalTimeoutConfig config = GlobalTimeoutConfig.get();
+        config.setBuildTimeoutDuration("90s");
+        StaplerRequest req = mock(StaplerRequest.class);
+        JSONObject json = new JSONObject();
+        doAnswer(invocation -> {
+            config.setBuildTimeoutDuration("5m");
+            config.setSheddingHighWatermark(10);
+            config.setSheddingLowWatermark(20);
+            return null;
+        }).when(req).bindJSON(config, json);
+        try {
+            config.configure(req, json);
+            fail("a low-water mark above the high-water mark is rejected");
+        } catch (Descriptor.FormException e) {
+            assertEquals("sheddingLowWatermark", e.getFormField());
+        }
+        // nothing of the rejected form is kept
+        assertEquals("1m30s", config.getBuildTimeoutDuration());
+        assertEquals(0, config.getSheddingHighWatermark().intValue());
+        assertEquals(90000, GlobalTimeoutConfig.settings().getBuildTimeoutMillis());
+        config.save();
+        assertEquals(90000, GlobalTimeoutConfig.settings().getBuildTimeoutMillis());
+    }
+
+    @Test
+    public void testLoadSheddingSettings() {
+        GlobalTimeoutConfig config = GlobalTimeoutConfig.get();
+        assertFalse(GlobalTimeoutConfig.settings().isLoadSheddingEnabled());
+        config.setSheddingHighWatermark(1000);
+        config.setSheddingLowWatermark(5000);
+        config.setSheddingMaxAge("1h");
+        TimeoutSettings settings = GlobalTimeoutConfig.settings();
+        assertTrue(settings.isLoadSheddingEnabled());
+        // the low-water marks never exceed the high-water marks
+        assertEquals(1000, settings.getSheddingLowWatermark());
+        assertEquals(3600000, settings.getSheddingTargetAgeMillis());
+        config.setSheddingTargetAge("30m");
+        assertEquals(1800000, GlobalTimeoutConfig.settings().getSheddingTargetAgeMillis());
+    }
+
+    @Test
+    public void testDefaultLowWatermark() {
+        GlobalTimeoutConfig.get().setSheddingHighWatermark(1000);
+        // only the high-water mark is set, so a crossing does not empty the queue
+        assertEquals(900, GlobalTimeoutConfig.settings().getSheddingLowWatermark());
+        assertTrue(GlobalTimeoutConfig.get().doCheckSheddingLowWatermark("1001", "1000").kind
+                == FormValidation.Kind.ERROR);
+        assertTrue(GlobalTimeoutConfig.get().doCheckSheddingLowWatermark("", "1000").kind
+                == FormValidation.Kind.OK);
+    }
+
     @Test
     public void testSetGracePeriod() {
         GlobalTimeoutConfig.get().setGracePeriod(1);
@@ -1,15 +1,22 @@
 package com.autodesk.config;
 
+import hudson.model.Descriptor;
 import hudson.model.FreeStyleProject;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.structs.describable.DescribableModel;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.kohsuke.stapler.StaplerRequest;
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
@@ -50,7 +57,7 @@ public class JobTimeoutPropertyTests {
     @Test
     public void testPipelineSetJobProperty() throws ExecutionException, InterruptedException {
         String jenkinsfileString = "node() {\n" +
-                "    properties([jobTimeoutProperty(1)])\n" +
+                "    properties([jobTimeoutProperty(buildTimeout: 1)])\n" +
                 "    echo 'hi'" +
                 "}";
         pipelineProject.setDefinition(new CpsFlowDefinition(jenkinsfileString, false));
@@ -58,4 +65,42 @@ public class JobTimeoutPropertyTests {
         JobTimeoutProperty property = pipelineProject.getProperty(JobTimeoutProperty.class);
         assertEquals(1, property.getBuildTimeout().intValue());
     }
+
+    @Test
+    public void testPipelineSetJobPropertyDuration() throws ExecutionException, InterruptedException {
+        String jenkinsfileString = "node() {\n" +
+                "    properties([jobTimeoutProperty(buildTimeoutDuration: '90s')])\n" +
+                "    echo 'hi'" +
+                "}";
+        pipelineProject.setDefinition(new CpsFlowDefinition(jenkinsfileString, false));
+        Objects.requireNonNull(pipelineProject.scheduleBuild2(0)).get();
+        JobTimeoutProperty property = pipelineProject.getProperty(JobTimeoutProperty.class);
+        assertEquals(90000, property.getBuildTimeoutMillis());
+    }
+
+    @Test
+    public void testExportOmitsLegacyTimeout() throws Exception {
+        JobTimeoutProperty property = new JobTimeoutProperty();
+        property.setBuildTimeoutDuration("90s");
+        Map<String, ?> arguments = DescribableModel.uninstantiate2_(property).getArguments();
+        // the minute based timeout would round the copy down to a minute
+        assertEquals(Collections.singletonMap("buildTimeoutDuration", "1m30s"), arguments);
+        JobTimeoutProperty copy = new DescribableModel<>(JobTimeoutProperty.class).instantiate(arguments);
+        assertEquals(90000, copy.getBuildTimeoutMillis());
+    }
+
+    @Test
+    public void testInvalidTimeoutReportedAgainstItsField() throws Exception {
+        JSONObject formData = new JSONObject();
+        formData.put("specified", true);
+        formData.put("buildTimeoutDuration", "90s");
+        formData.put("stageTimeout", "not a timeout");
+        try {
+            jenkinsRule.jenkins.getDescriptorByType(JobTimeoutProperty.DescriptorImpl.class)
+                    .newInstance(mock(StaplerRequest.class), formData);
+            fail("an invalid stage timeout is rejected");
+        } catch (Descriptor.FormException e) {
+            assertEquals("stageTimeout", e.getFormField());
+        }
+    }
 }
@@ -0,0 +1,53 @@
+package com.autodesk.config;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+
+/**
+ * Test class for {@link TimeoutDuration}
+ */
+public class TimeoutDurationTests {
+
+    @Test
+    public void testParse() {
+        assertEquals(Duration.ofSeconds(90), TimeoutDuration.parse("90s"));
+        assertEquals(Duration.ofSeconds(150), TimeoutDuration.parse("2m30s"));
+        assertEquals(Duration.ofHours(1), TimeoutDuration.parse("1h"));
+        assertEquals(Duration.ofSeconds(3725), TimeoutDuration.parse(" 1H 2m 5s "));
+        assertNull(TimeoutDuration.parse(null));
+        assertNull(TimeoutDuration.parse(""));
+    }
+
+    @Test
+    public void testPlainNumberIsMinutes() {
+        // timeouts configured before second precision was supported
+        assertEquals(Duration.ofMinutes(10), TimeoutDuration.parse("10"));
+        assertEquals(0, TimeoutDuration.toMillis("0"));
+        assertEquals(Integer.valueOf(10), TimeoutDuration.toMinutes("10"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalid() {
+        TimeoutDuration.parse("10 minutes");
+    }
+
+    @Test
+    public void testCappedAtMax() {
+        assertEquals(TimeoutDuration.MAX, TimeoutDuration.parse("9999999999999h"));
+        assertEquals(TimeoutDuration.MAX, TimeoutDuration.parse("99999999999999999999"));
+        assertEquals(TimeoutDuration.MAX.toMillis(), TimeoutDuration.toMillis("9999999999999h"));
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE), TimeoutDuration.toMinutes("9999999999999h"));
+        assertEquals(Duration.ofHours(1000), TimeoutDuration.parse("1000h"));
+    }
+
+    @Test
+    public void testFormat() {
+        assertEquals("1m30s", TimeoutDuration.format(Duration.ofSeconds(90)));
+        assertEquals("1h", TimeoutDuration.format(Duration.ofMinutes(60)));
+        assertEquals("0", TimeoutDuration.format(Duration.ZERO));
+        assertEquals("10m", TimeoutDuration.fromMinutes(10));
+        assertEquals("1m30s", TimeoutDuration.normalize("90s"));
+    }
+}
@@ -0,0 +1,72 @@
+package com.autodesk.config;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Test class for {@link TimeoutPolicy}
+ */
+public class TimeoutPolicyTests {
+
+    private static class FreeStyleJob {
+    }
+
+    private static class PipelineJob {
+    }
+
+    private final TimeoutPolicy policy = TimeoutPolicy.compile(Arrays.asList(
+            new TimeoutPolicyRule(TimeoutPolicyRule.Scope.FOLDER, "team", "10m"),
+            new TimeoutPolicyRule(TimeoutPolicyRule.Scope.FOLDER, "team/smoke", "90s"),
+            new TimeoutPolicyRule(TimeoutPolicyRule.Scope.LABEL, "docker", "20m"),
+            new TimeoutPolicyRule(TimeoutPolicyRule.Scope.LABEL, "windows", "30m"),
+            new TimeoutPolicyRule(TimeoutPolicyRule.Scope.JOB_TYPE, "PipelineJob", "1h")));
+
+    @Test
+    public void testDeepestFolderWins() {
+        assertEquals(90000, policy.resolve("team/smoke/build", Collections.emptyList(), PipelineJob.class));
+        assertEquals(90000, policy.resolve("team/smoke/nested/build", Collections.emptyList(), PipelineJob.class));
+        assertEquals(600000, policy.resolve("team/other/build", Collections.emptyList(), PipelineJob.class));
+        assertEquals(600000, policy.resolve("team/build", Collections.singletonList("docker"), PipelineJob.class));
+    }
+
+    @Test
+    public void testJobNameIsNotAFolder() {
+        // a job named like a folder with a rule is not below that folder
+        assertEquals(0, policy.resolve("team", Collections.emptyList(), FreeStyleJob.class));
+    }
+
+    @Test
+    public void testShortestLabelWins() {
+        assertEquals(1200000, policy.resolve("other/build", Arrays.asList("windows", "docker"), PipelineJob.class));
+    }
+
+    @Test
+    public void testJobType() {
+        assertEquals(3600000, policy.resolve("other/build", Collections.singletonList("linux"), PipelineJob.class));
+        assertEquals(0, policy.resolve("other/build", Collections.singletonList("linux"), FreeStyleJob.class));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, TimeoutPolicy.compile(null).size());
+        assertEquals(5, policy.size());
+    }
+
+    @Test
+    public void testFolderBlockTimeouts() {
+        TimeoutPolicyRule team = new TimeoutPolicyRule(TimeoutPolicyRule.Scope.FOLDER, "team", null);
+        team.setNodeTimeout("30m");
+        TimeoutPolicyRule smoke = new TimeoutPolicyRule(TimeoutPolicyRule.Scope.FOLDER, "team/smoke", "1h");
+        smoke.setStageTimeout("5m");
+        TimeoutPolicy blockPolicy = TimeoutPolicy.compile(Arrays.asList(team, smoke));
+        assertEquals(2, blockPolicy.size());
+        // a rule with only block timeouts does not set a build timeout
+        assertEquals(0, blockPolicy.resolveFolder("team/build"));
+        assertEquals(1800000, blockPolicy.resolveFolderNodeTimeout("team/smoke/build"));
+        assertEquals(300000, blockPolicy.resolveFolderStageTimeout("team/smoke/build"));
+        assertEquals(0, blockPolicy.resolveFolderStageTimeout("team/build"));
+    }
+}